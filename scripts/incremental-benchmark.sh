@@ -0,0 +1,73 @@
+#!/bin/sh
+# Compares the wall time of a full and an incremental analysis of the new version of an application, based on
+# the state of its old version, and checks that both analyses produce the same results.
+# usage: incremental-benchmark.sh <old apk file> <new apk file> [runs]
+
+if [ $# -lt 2 ]; then
+    echo "usage: $0 <old apk file> <new apk file> [runs]" >&2
+    exit 1
+fi
+
+OLD="$1"
+NEW="$2"
+RUNS="${3:-3}"
+SCRIPT_DIR="$(cd "$(dirname "$0")" && pwd)"
+JAR="${SMALIANALYZER_JAR:-$(ls "$SCRIPT_DIR"/../build/libs/SmaliAnalyzer-*.jar 2>/dev/null | head -n 1)}"
+OUT="$(mktemp -d)"
+trap 'rm -rf "$OUT"' EXIT
+
+if [ -z "$JAR" ] || [ ! -f "$JAR" ]; then
+    echo "SmaliAnalyzer jar not found, build it with './gradlew fatJar' or set SMALIANALYZER_JAR" >&2
+    exit 1
+fi
+
+mkdir -p "$OUT/old" "$OUT/full" "$OUT/incremental"
+if ! java -jar "$JAR" -f "$OLD" -o "$OUT/old" --save-state > "$OUT/old.log" 2>&1; then
+    echo "Failed analyzing old version, see the output below" >&2
+    cat "$OUT/old.log" >&2
+    exit 1
+fi
+# results of .apk files are named without the extension, those of .xapk and .apks bundles keep it
+result_name()
+{
+    case "$1" in
+        *.xapk|*.apks) basename "$1" ;;
+        *) name="$(basename "$1")"; echo "${name%.*}" ;;
+    esac
+}
+
+STATE="$OUT/old/$(result_name "$OLD").state"
+
+# prints the average wall time in ms, the output of the last run is kept in <output folder>.log
+measure()
+{
+    dir="$1"
+    shift
+    total=0
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        start=$(date +%s%N)
+        java -jar "$JAR" -f "$NEW" -o "$dir" "$@" > "$dir.log" 2>&1
+        stop=$(date +%s%N)
+        total=$((total + (stop - start) / 1000000))
+        i=$((i + 1))
+    done
+    echo $((total / RUNS))
+}
+
+FULL=$(measure "$OUT/full" --save-state)
+INCREMENTAL=$(measure "$OUT/incremental" --previous "$STATE")
+
+NEW_NAME="$(result_name "$NEW")"
+RESULT="identical"
+for EXTENSION in json meta str; do
+    if ! cmp -s "$OUT/full/$NEW_NAME.$EXTENSION" "$OUT/incremental/$NEW_NAME.$EXTENSION"; then
+        RESULT="DIFFERENT .$EXTENSION"
+    fi
+done
+
+echo "full analysis:        ${FULL} ms (average of $RUNS runs)"
+echo "incremental analysis: ${INCREMENTAL} ms (average of $RUNS runs)"
+grep "Reused results" "$OUT/incremental.log" || echo "previous state was ignored, all components were parsed"
+echo "results: $RESULT"
+[ "$RESULT" = "identical" ]
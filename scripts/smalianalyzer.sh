@@ -0,0 +1,17 @@
+#!/bin/sh
+# Launches the SmaliAnalyzer fat jar, using the class-data sharing archive built by
+# './gradlew cdsArchive' if it exists next to the jar. The JVM silently falls back to
+# a regular startup if the archive does not match the jar.
+
+SCRIPT_DIR="$(cd "$(dirname "$0")" && pwd)"
+JAR="${SMALIANALYZER_JAR:-$(ls "$SCRIPT_DIR"/../build/libs/SmaliAnalyzer-*.jar 2>/dev/null | head -n 1)}"
+if [ -z "$JAR" ] || [ ! -f "$JAR" ]; then
+    echo "SmaliAnalyzer jar not found, build it with './gradlew fatJar' or set SMALIANALYZER_JAR" >&2
+    exit 1
+fi
+
+JSA="$(dirname "$JAR")/SmaliAnalyzer.jsa"
+if [ -f "$JSA" ]; then
+    exec java -Xshare:auto -XX:SharedArchiveFile="$JSA" $JAVA_OPTS -jar "$JAR" "$@"
+fi
+exec java $JAVA_OPTS -jar "$JAR" "$@"
@@ -0,0 +1,41 @@
+#!/bin/sh
+# Compares the wall time of default and app class-data sharing startups of SmaliAnalyzer on a small APK. The
+# default startup still maps the class-data sharing archive of the JDK, only the application archive is added.
+# usage: startup-benchmark.sh <apk file> [runs]
+
+if [ $# -lt 1 ]; then
+    echo "usage: $0 <apk file> [runs]" >&2
+    exit 1
+fi
+
+APK="$1"
+RUNS="${2:-5}"
+SCRIPT_DIR="$(cd "$(dirname "$0")" && pwd)"
+JAR="${SMALIANALYZER_JAR:-$(ls "$SCRIPT_DIR"/../build/libs/SmaliAnalyzer-*.jar 2>/dev/null | head -n 1)}"
+JSA="$(dirname "$JAR")/SmaliAnalyzer.jsa"
+OUT="$(mktemp -d)"
+trap 'rm -rf "$OUT"' EXIT
+
+if [ ! -f "$JSA" ]; then
+    echo "No class-data sharing archive found, build it with './gradlew cdsArchive'" >&2
+    exit 1
+fi
+
+measure()
+{
+    total=0
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        start=$(date +%s%N)
+        java "$@" -jar "$JAR" -f "$APK" -o "$OUT" > /dev/null 2>&1
+        stop=$(date +%s%N)
+        total=$((total + (stop - start) / 1000000))
+        i=$((i + 1))
+    done
+    echo $((total / RUNS))
+}
+
+DEFAULT=$(measure -Xshare:auto)
+CDS=$(measure -Xshare:auto -XX:SharedArchiveFile="$JSA")
+echo "default startup: ${DEFAULT} ms (average of $RUNS runs)"
+echo "app cds startup: ${CDS} ms (average of $RUNS runs)"
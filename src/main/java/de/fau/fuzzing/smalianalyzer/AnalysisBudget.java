@@ -0,0 +1,195 @@
+package de.fau.fuzzing.smalianalyzer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The wall-clock, CPU and visited methods budget of the analysis of a single APK file. The decode, index and
+ * parse stages poll {@link #check()} regularly and stop cooperatively once a budget is exceeded or the analysis
+ * was cancelled. A limit of 0 disables the respective budget.
+ */
+public class AnalysisBudget
+{
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    // reading the cpu time of a thread is a system call, it is only polled this often
+    private static final long CPU_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    public enum Stage
+    {
+        DECODE, MANIFEST, INDEX, PARSE
+    }
+
+    public enum Limit
+    {
+        WALL_CLOCK, CPU, METHODS, CANCELLED
+    }
+
+    public interface Task<T>
+    {
+        T run() throws IOException;
+    }
+
+    private final long wallClockNanos;
+    private final long cpuNanos;
+    private final long maxMethods;
+
+    private final long startNanos = System.nanoTime();
+    private final long ownerThreadId = Thread.currentThread().getId();
+    private final long ownerCpuStartNanos = getCurrentThreadCpuNanos();
+    private final AtomicLong helperCpuNanos = new AtomicLong(0);
+    private final ThreadLocal<Long> helperCpuSampleNanos = new ThreadLocal<>();
+    private final AtomicLong visitedMethods = new AtomicLong(0);
+    private volatile long lastCpuCheckNanos = startNanos;
+    private volatile Stage stage = Stage.DECODE;
+    private volatile boolean cancelled = false;
+    private volatile BudgetExceededException exceeded = null;
+
+    /**
+     * Starts the budget on the calling thread, which is the one analyzing the APK file.
+     */
+    public AnalysisBudget(final long wallClockMillis, final long cpuMillis, final long maxMethods)
+    {
+        this.wallClockNanos = TimeUnit.MILLISECONDS.toNanos(wallClockMillis);
+        this.cpuNanos = TimeUnit.MILLISECONDS.toNanos(cpuMillis);
+        this.maxMethods = maxMethods;
+    }
+
+    public static AnalysisBudget unlimited()
+    {
+        return new AnalysisBudget(0, 0, 0);
+    }
+
+    public void enterStage(final Stage stage)
+    {
+        this.stage = stage;
+        check();
+    }
+
+    public Stage getStage()
+    {
+        return stage;
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * @return the exception describing the exceeded budget, or null if all budgets were met
+     */
+    public BudgetExceededException getExceeded()
+    {
+        return exceeded;
+    }
+
+    public boolean isExceeded()
+    {
+        if (exceeded != null)
+            return true;
+        try
+        {
+            check();
+            return false;
+        }
+        catch (BudgetExceededException e)
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Counts a visited method against the methods budget and checks all other budgets.
+     */
+    public void visitMethod()
+    {
+        if (maxMethods > 0 && visitedMethods.incrementAndGet() > maxMethods)
+            exceed(Limit.METHODS);
+        check();
+    }
+
+    public void check()
+    {
+        if (exceeded != null)
+            throw exceeded;
+        if (cancelled)
+            exceed(Limit.CANCELLED);
+
+        final long now = System.nanoTime();
+        if (wallClockNanos > 0 && now - startNanos > wallClockNanos)
+            exceed(Limit.WALL_CLOCK);
+        if (cpuNanos > 0 && now - lastCpuCheckNanos > CPU_CHECK_INTERVAL_NANOS)
+        {
+            lastCpuCheckNanos = now;
+            if (getCpuNanos() > cpuNanos)
+                exceed(Limit.CPU);
+        }
+    }
+
+    /**
+     * Runs a task of the analysis and accounts its CPU time, if it runs on a thread other than the analyzing one.
+     */
+    public <T> T runAccounted(final Task<T> task) throws IOException
+    {
+        if (Thread.currentThread().getId() == ownerThreadId)
+            return task.run();
+
+        final long cpuStartNanos = getCurrentThreadCpuNanos();
+        try
+        {
+            return task.run();
+        }
+        finally
+        {
+            helperCpuNanos.addAndGet(getCurrentThreadCpuNanos() - cpuStartNanos);
+        }
+    }
+
+    /**
+     * Accounts the CPU time the calling thread used since its previous call, for threads a library starts for this
+     * analysis, like the disassembly threads of baksmali. Their CPU time is counted from the start of the thread,
+     * the time after the last call of a thread is not accounted.
+     */
+    public void accountHelperThread()
+    {
+        if (Thread.currentThread().getId() == ownerThreadId)
+            return;
+
+        final long cpuNanos = getCurrentThreadCpuNanos();
+        final Long lastCpuNanos = helperCpuSampleNanos.get();
+        helperCpuNanos.addAndGet(cpuNanos - (lastCpuNanos != null ? lastCpuNanos : 0));
+        helperCpuSampleNanos.set(cpuNanos);
+    }
+
+    public long getVisitedMethods()
+    {
+        return visitedMethods.get();
+    }
+
+    public long getElapsedMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private long getCpuNanos()
+    {
+        final long ownerCpuNanos = THREAD_BEAN.isThreadCpuTimeSupported() ? THREAD_BEAN.getThreadCpuTime(ownerThreadId) : -1;
+        return Math.max(0, ownerCpuNanos - ownerCpuStartNanos) + helperCpuNanos.get();
+    }
+
+    private synchronized void exceed(final Limit limit)
+    {
+        // the first exceeded budget is kept, so all threads report the same stage and limit
+        if (exceeded == null)
+            exceeded = new BudgetExceededException(stage, limit, getElapsedMillis());
+        throw exceeded;
+    }
+
+    private static long getCurrentThreadCpuNanos()
+    {
+        return THREAD_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_BEAN.getCurrentThreadCpuTime() : 0;
+    }
+}
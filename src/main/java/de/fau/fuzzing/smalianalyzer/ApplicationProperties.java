@@ -12,24 +12,48 @@ import java.util.Properties;
 public class ApplicationProperties
 {
     private static final Logger LOG = LogManager.getLogger();
-    private static final String PROPERTIES_PATH = Paths.get(ApplicationProperties.class.getProtectionDomain()
-            .getCodeSource().getLocation().getPath()).getParent().resolve("application.properties").toString();
 
     private String aaptPath = null;
     private String radamsaPath = null;
     private int maxDepth = 0;
+    private String sinksPath = null;
+    private boolean boundedMemory = false;
+    private String scratchPath = null;
+    private long scratchMinFreeBytes = 0;
+    private String indexType = null;
+    private String spillPath = null;
+    private int indexCacheSize = 0;
+    private int stringBufferSize = 0;
+    private long budgetWallClockSeconds = 0;
+    private long budgetCpuSeconds = 0;
+    private long budgetMaxMethods = 0;
 
-    private static ApplicationProperties instance;
+    // the properties file is only located and read on first access, keeping it out of class initialization
+    private static class InstanceHolder
+    {
+        private static final ApplicationProperties INSTANCE = new ApplicationProperties();
+    }
 
     private ApplicationProperties()
     {
-        try
+        try (final FileInputStream inputStream = new FileInputStream(new File(getPropertiesPath())))
         {
             final Properties properties = new Properties();
-            properties.load(new FileInputStream(new File(PROPERTIES_PATH)));
+            properties.load(inputStream);
             aaptPath = properties.getProperty("tools.android.sdk.aapt.path", ".");
             radamsaPath = properties.getProperty("tools.radamsa.path", ".");
             maxDepth = Integer.parseInt(properties.getProperty("constants.max.depth", "0"));
+            sinksPath = properties.getProperty("constants.sinks.path", "");
+            scratchPath = properties.getProperty("scratch.path", "");
+            scratchMinFreeBytes = Long.parseLong(properties.getProperty("scratch.min.free.mb", "1024")) * 1024 * 1024;
+            boundedMemory = Boolean.parseBoolean(properties.getProperty("memory.bounded", "false"));
+            indexType = properties.getProperty("memory.index.type", "heap");
+            spillPath = properties.getProperty("memory.spill.path", "");
+            indexCacheSize = Integer.parseInt(properties.getProperty("memory.index.cache.size", "10000"));
+            stringBufferSize = Integer.parseInt(properties.getProperty("memory.string.buffer.size", "100000"));
+            budgetWallClockSeconds = Long.parseLong(properties.getProperty("budget.wall.seconds", "0"));
+            budgetCpuSeconds = Long.parseLong(properties.getProperty("budget.cpu.seconds", "0"));
+            budgetMaxMethods = Long.parseLong(properties.getProperty("budget.max.methods", "0"));
         }
         catch (IOException e)
         {
@@ -37,13 +61,19 @@ public class ApplicationProperties
         }
     }
 
+    private static String getPropertiesPath()
+    {
+        // an explicitly specified file takes precedence over the one next to the jar, e.g. for the regression harness
+        final String propertiesPath = System.getProperty("smalianalyzer.properties");
+        if (propertiesPath != null && !propertiesPath.isEmpty())
+            return propertiesPath;
+        return Paths.get(ApplicationProperties.class.getProtectionDomain().getCodeSource().getLocation().getPath())
+                .getParent().resolve("application.properties").toString();
+    }
+
     public static ApplicationProperties getInstance()
     {
-        if (ApplicationProperties.instance == null)
-        {
-            ApplicationProperties.instance = new ApplicationProperties();
-        }
-        return ApplicationProperties.instance;
+        return InstanceHolder.INSTANCE;
     }
 
     public String getAAPTPath()
@@ -57,4 +87,59 @@ public class ApplicationProperties
     {
         return maxDepth;
     }
+
+    public String getSinksPath()
+    {
+        return sinksPath;
+    }
+
+    public String getScratchPath()
+    {
+        return scratchPath;
+    }
+
+    public long getScratchMinFreeBytes()
+    {
+        return scratchMinFreeBytes;
+    }
+
+    public boolean isBoundedMemory()
+    {
+        return boundedMemory;
+    }
+
+    public String getIndexType()
+    {
+        return indexType;
+    }
+
+    public String getSpillPath()
+    {
+        return spillPath;
+    }
+
+    public int getIndexCacheSize()
+    {
+        return indexCacheSize;
+    }
+
+    public int getStringBufferSize()
+    {
+        return stringBufferSize;
+    }
+
+    public long getBudgetWallClockSeconds()
+    {
+        return budgetWallClockSeconds;
+    }
+
+    public long getBudgetCpuSeconds()
+    {
+        return budgetCpuSeconds;
+    }
+
+    public long getBudgetMaxMethods()
+    {
+        return budgetMaxMethods;
+    }
 }
@@ -0,0 +1,37 @@
+package de.fau.fuzzing.smalianalyzer;
+
+/**
+ * Thrown by {@link AnalysisBudget#check()} once the analysis of an APK file exceeded one of its budgets or was
+ * cancelled. Unchecked, so it passes through the recursion of the parser and through work items of other threads.
+ */
+public class BudgetExceededException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final AnalysisBudget.Stage stage;
+    private final AnalysisBudget.Limit limit;
+    private final long elapsedMillis;
+
+    BudgetExceededException(final AnalysisBudget.Stage stage, final AnalysisBudget.Limit limit, final long elapsedMillis)
+    {
+        super(String.format("%s budget exceeded in stage %s after %d ms", limit.name().toLowerCase(), stage.name().toLowerCase(), elapsedMillis));
+        this.stage = stage;
+        this.limit = limit;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public AnalysisBudget.Stage getStage()
+    {
+        return stage;
+    }
+
+    public AnalysisBudget.Limit getLimit()
+    {
+        return limit;
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+}
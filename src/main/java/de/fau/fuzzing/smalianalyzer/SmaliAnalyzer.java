@@ -1,23 +1,48 @@
 package de.fau.fuzzing.smalianalyzer;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import de.fau.fuzzing.smalianalyzer.decode.ApkBundle;
 import de.fau.fuzzing.smalianalyzer.decode.ApkDecoder;
+import de.fau.fuzzing.smalianalyzer.decode.ApkSource;
+import de.fau.fuzzing.smalianalyzer.decode.ArchiveReader;
+import de.fau.fuzzing.smalianalyzer.decode.FileApkSource;
+import de.fau.fuzzing.smalianalyzer.decode.MemoryApkSource;
+import de.fau.fuzzing.smalianalyzer.decode.ScratchSpace;
+import de.fau.fuzzing.smalianalyzer.parse.ClassIndex;
+import de.fau.fuzzing.smalianalyzer.parse.DiskClassIndex;
+import de.fau.fuzzing.smalianalyzer.parse.HeapClassIndex;
+import de.fau.fuzzing.smalianalyzer.parse.IndexEntry;
+import de.fau.fuzzing.smalianalyzer.parse.InvocationResults;
+import de.fau.fuzzing.smalianalyzer.parse.OffHeapClassIndex;
+import de.fau.fuzzing.smalianalyzer.parse.RecordingClassIndex;
 import de.fau.fuzzing.smalianalyzer.parse.SmaliFileParser;
 import de.fau.fuzzing.smalianalyzer.parse.SmaliProjectIndexer;
+import de.fau.fuzzing.smalianalyzer.schedule.BatchScheduler;
+import de.fau.fuzzing.smalianalyzer.schedule.SharedWorkList;
+import de.fau.fuzzing.smalianalyzer.serialize.AnalysisState;
 import de.fau.fuzzing.smalianalyzer.serialize.OutputWriter;
+import de.fau.fuzzing.smalianalyzer.serialize.ProgressJournal;
+import de.fau.fuzzing.smalianalyzer.serialize.SpillingStringSet;
 import org.apache.commons.cli.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class SmaliAnalyzer
 {
@@ -25,22 +50,82 @@ public class SmaliAnalyzer
 
     private static class ParsingResult
     {
-        private ParsingResult(Map<String, Collection<String>> intentInvocations, Map<String, Collection<String>> bundleInvocations)
+        private ParsingResult(final InvocationResults results)
         {
-            this.intentInvocations = intentInvocations;
-            this.bundleInvocations = bundleInvocations;
+            this.intentInvocations = results.getIntentResults().asMap();
+            this.bundleInvocations = results.getBundleResults().asMap();
+            // omitted from the json output if empty
+            this.defaultValues = results.getDefaultValues().isEmpty() ? null : results.getDefaultValues().asMap();
+            this.comparedValues = results.getComparedValues().isEmpty() ? null : results.getComparedValues().asMap();
         }
 
         Map<String, Collection<String>> intentInvocations;
         Map<String, Collection<String>> bundleInvocations;
+        Map<String, Collection<String>> defaultValues;
+        Map<String, Collection<String>> comparedValues;
+    }
+
+    private static class ComponentResult
+    {
+        private final String componentName;
+        private final InvocationResults results = new InvocationResults();
+        private final Set<String> strings = Sets.newHashSet();
+        private Set<String> dependencies;
+        private boolean reused = false;
+
+        private ComponentResult(final String componentName)
+        {
+            this.componentName = componentName;
+        }
+    }
+
+    private static class Truncation
+    {
+        // only reported in the summary, the truncation file is named after the APK file
+        private transient String fileName;
+        private AnalysisBudget.Stage stage;
+        private AnalysisBudget.Limit limit;
+        private long elapsedMillis;
+        private long visitedMethods;
+        private int parsedComponents;
+        private int totalComponents;
+    }
+
+    static class AnalysisOptions
+    {
+        boolean boundedMemory = false;
+        boolean resume = false;
+        boolean saveState = false;
+        Path previousStatePath = null;
+        String indexType = ApplicationProperties.getInstance().getIndexType();
+        // a .spill folder in the output folder if null
+        Path spillPath = ApplicationProperties.getInstance().getSpillPath() == null || ApplicationProperties.getInstance().getSpillPath().isEmpty() ?
+                null : Paths.get(ApplicationProperties.getInstance().getSpillPath());
+        ScratchSpace scratchSpace = null;
+        BatchScheduler scheduler = null;
+        long wallClockMillis = TimeUnit.SECONDS.toMillis(ApplicationProperties.getInstance().getBudgetWallClockSeconds());
+        long cpuMillis = TimeUnit.SECONDS.toMillis(ApplicationProperties.getInstance().getBudgetCpuSeconds());
+        long maxMethods = ApplicationProperties.getInstance().getBudgetMaxMethods();
+        final List<Truncation> truncations = Collections.synchronizedList(Lists.newArrayList());
     }
 
     public static void main(final String[] args) throws ParseException
     {
         final Options options = new Options();
         options.addOption("h", false, "print this dialog");
-        options.addOption("f", true, "specify an input APK file or a folder containing APK files");
+        options.addOption("f", true, "specify an input APK file, an .xapk/.apks bundle, a folder containing such files or a .zip/.tar archive of them, - reads an archive from stdin");
         options.addOption("o", true, "specify the output folder");
+        options.addOption("s", true, "specify the scratch folder decoded files are written to, e.g. /dev/shm");
+        options.addOption("b", false, "bound memory usage by spilling the index and found strings to disk");
+        options.addOption("j", true, "specify the number of APK files of a folder analyzed in parallel, largest first");
+        options.addOption(Option.builder().longOpt("timeout").hasArg()
+                .desc("specify the wall-clock seconds the analysis of a single APK file may take, its results are truncated afterwards").build());
+        options.addOption(Option.builder().longOpt("resume")
+                .desc("skip APK files of a folder already analyzed according to the journal in the output folder").build());
+        options.addOption(Option.builder().longOpt("save-state")
+                .desc("write the per-component state used for incremental analysis of later versions").build());
+        options.addOption(Option.builder().longOpt("previous").hasArg()
+                .desc("specify the state file of the previous version of the analyzed APK file, only re-parses changed components").build());
 
         final CommandLineParser parser = new DefaultParser();
         final CommandLine cmd = parser.parse(options, args);
@@ -58,6 +143,23 @@ public class SmaliAnalyzer
             sourcePath = Paths.get(cmd.getOptionValue("f"));
         if (cmd.hasOption("o"))
             outputPath = Paths.get(cmd.getOptionValue("o"));
+        final AnalysisOptions analysisOptions = new AnalysisOptions();
+        analysisOptions.boundedMemory = cmd.hasOption("b") || ApplicationProperties.getInstance().isBoundedMemory();
+        analysisOptions.resume = cmd.hasOption("resume");
+        analysisOptions.saveState = cmd.hasOption("save-state") || cmd.hasOption("previous");
+        if (cmd.hasOption("previous"))
+            analysisOptions.previousStatePath = Paths.get(cmd.getOptionValue("previous"));
+        if (cmd.hasOption("timeout"))
+            analysisOptions.wallClockMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue("timeout")));
+        final int workerCount = cmd.hasOption("j") ? Integer.parseInt(cmd.getOptionValue("j")) : 1;
+        if (workerCount < 1)
+        {
+            System.err.println("Number of parallel APK files has to be positive");
+            return;
+        }
+        String scratchPath = ApplicationProperties.getInstance().getScratchPath();
+        if (cmd.hasOption("s"))
+            scratchPath = cmd.getOptionValue("s");
 
         long startTime = System.currentTimeMillis();
 
@@ -67,38 +169,112 @@ public class SmaliAnalyzer
             return;
         }
 
-        if (Files.isRegularFile(sourcePath, LinkOption.NOFOLLOW_LINKS))
-        {
-            final PathMatcher fileMatcher = FileSystems.getDefault().getPathMatcher("glob:**.apk");
-            if (fileMatcher.matches(sourcePath))
-                analyzeApk(sourcePath, outputPath);
-        }
-        else if (Files.isDirectory(sourcePath, LinkOption.NOFOLLOW_LINKS))
+        final ScratchSpace scratchSpace = new ScratchSpace(scratchPath == null || scratchPath.isEmpty() ? null : Paths.get(scratchPath),
+                ApplicationProperties.getInstance().getScratchMinFreeBytes());
+        analysisOptions.scratchSpace = scratchSpace;
+        try
         {
-            analyzeApkFolder(sourcePath, outputPath);
+            final boolean archiveInput = sourcePath.toString().equals("-") || ArchiveReader.isArchive(sourcePath.getFileName().toString());
+            if (archiveInput && (analysisOptions.previousStatePath != null || analysisOptions.resume))
+            {
+                System.err.println("A previous state and resuming are not supported for archives");
+                return;
+            }
+
+            if (sourcePath.toString().equals("-"))
+            {
+                analyzeApkArchive(System.in, outputPath, analysisOptions);
+            }
+            else if (archiveInput && Files.isRegularFile(sourcePath))
+            {
+                try (final InputStream inputStream = Files.newInputStream(sourcePath))
+                {
+                    analyzeApkArchive(inputStream, outputPath, analysisOptions);
+                }
+                catch (IOException e)
+                {
+                    System.err.println(String.format("Failed reading archive: %s", sourcePath.toString()));
+                    e.printStackTrace();
+                    LOG.error(e);
+                }
+            }
+            else if (Files.isRegularFile(sourcePath, LinkOption.NOFOLLOW_LINKS))
+            {
+                if (ApkBundle.isSupportedInput(sourcePath))
+                    analyzeApk(new FileApkSource(sourcePath), outputPath, analysisOptions);
+            }
+            else if (Files.isDirectory(sourcePath, LinkOption.NOFOLLOW_LINKS))
+            {
+                if (analysisOptions.previousStatePath != null)
+                {
+                    System.err.println("A previous state can only be specified for a single APK file");
+                    return;
+                }
+                analysisOptions.scheduler = new BatchScheduler(workerCount);
+                analyzeApkFolder(sourcePath, outputPath, analysisOptions);
+            }
+            else
+            {
+                System.err.println("Source path has to be either a file or a directory");
+                return;
+            }
         }
-        else
+        finally
         {
-            System.err.println("Source path has to be either a file or a directory");
-            return;
+            scratchSpace.shutdown();
         }
 
+        printBudgetSummary(analysisOptions.truncations);
+
         long stopTime = System.currentTimeMillis();
         long elapsedTime = stopTime - startTime;
         System.out.println("Finished after " + TimeUnit.MILLISECONDS.toSeconds(elapsedTime) + " seconds");
     }
 
-    private static void analyzeApkFolder(final Path sourcePath, final Path outputPath)
+    private static void analyzeApkFolder(final Path sourcePath, final Path outputPath, final AnalysisOptions analysisOptions)
     {
         assert Files.isDirectory(outputPath);
         assert Files.isDirectory(sourcePath);
 
-        try (final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(sourcePath, "*.apk"))
+        try (final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(sourcePath, ApkBundle.INPUT_GLOB);
+             final ProgressJournal journal = ProgressJournal.open(outputPath))
         {
+            final List<Path> apkFiles = Lists.newArrayList();
             for (final Path apkFile : directoryStream)
             {
-                analyzeApk(apkFile, outputPath);
+                final List<Path> outputPaths = getOutputPaths(outputPath, apkFile.getFileName().toString());
+                if (analysisOptions.resume && journal.isCompleted(apkFile, outputPaths))
+                {
+                    System.out.println(String.format("Skipping already analyzed apk file: %s", apkFile.toString()));
+                    continue;
+                }
+                if (journal.isInterrupted(apkFile))
+                {
+                    System.out.println(String.format("Discarding partial results of interrupted apk file: %s", apkFile.toString()));
+                    for (final Path path : outputPaths)
+                        Files.deleteIfExists(path);
+                }
+                apkFiles.add(apkFile);
             }
+
+            final BatchScheduler.Report report = analysisOptions.scheduler.run(apkFiles, apkFile ->
+            {
+                final ApkSource source = new FileApkSource(apkFile);
+                final List<Path> outputPaths = getOutputPaths(outputPath, source.getFileName());
+                analysisOptions.scratchSpace.awaitFreeSpace(source);
+                journal.started(apkFile);
+                if (!analyzeApk(source, outputPath, analysisOptions))
+                    journal.failed(apkFile);
+                else if (Files.exists(getOutputPath(outputPath, source.getFileName(), ".truncated")))
+                    journal.truncated(apkFile);
+                else
+                    journal.finished(apkFile, outputPaths);
+            });
+            printSchedulingReport(report, analysisOptions.scheduler.getWorkerCount());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
         }
         catch (IOException e)
         {
@@ -108,79 +284,377 @@ public class SmaliAnalyzer
         }
     }
 
-    private static void analyzeApk(final Path sourcePath, final Path outputPath)
+    private static void analyzeApkArchive(final InputStream inputStream, final Path outputPath, final AnalysisOptions analysisOptions)
     {
         assert Files.isDirectory(outputPath);
-        assert Files.isRegularFile(sourcePath);
 
-        final Path rootPath = Paths.get(sourcePath.toString().replaceAll(".apk", "/"));
+        // each APK file is only held in memory while it is analyzed, the journal is not used as entries can not be skipped
         try
         {
-            System.out.println(String.format("Decoding apk file: %s", sourcePath.toString()));
-            ApkDecoder.decode(sourcePath, rootPath);
+            ArchiveReader.read(inputStream, ApkBundle::isSupportedInput, (fileName, content) ->
+            {
+                final ApkSource source = new MemoryApkSource(fileName, content);
+                try
+                {
+                    analysisOptions.scratchSpace.awaitFreeSpace(source);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for scratch space");
+                }
+                analyzeApk(source, outputPath, analysisOptions);
+            });
+        }
+        catch (IOException e)
+        {
+            System.err.println("Failed reading archive");
+            e.printStackTrace();
+            LOG.error(e);
+        }
+    }
+
+    static boolean analyzeApk(final ApkSource source, final Path outputPath, final AnalysisOptions analysisOptions)
+    {
+        assert Files.isDirectory(outputPath);
+
+        final Path rootPath;
+        try
+        {
+            rootPath = analysisOptions.scratchSpace.createJobDirectory(source);
+        }
+        catch (IOException e)
+        {
+            System.err.println(String.format("Failed creating scratch directory for apk file: %s", source.toString()));
+            e.printStackTrace();
+            LOG.error(e);
+            return false;
+        }
+
+        // spilled data is kept apart from the scratch folder, which may be a RAM disk
+        final Path spillRootPath = analysisOptions.spillPath != null ? analysisOptions.spillPath : outputPath.resolve(".spill");
+        final Path spillPath;
+        try
+        {
+            spillPath = Files.createTempDirectory(Files.createDirectories(spillRootPath), rootPath.getFileName().toString() + "-");
+        }
+        catch (IOException e)
+        {
+            System.err.println(String.format("Failed creating spill directory for apk file: %s", source.toString()));
+            e.printStackTrace();
+            LOG.error(e);
+            analysisOptions.scratchSpace.release(rootPath);
+            return false;
+        }
+        final ClassIndex index = createClassIndex(spillPath, analysisOptions.indexType, analysisOptions.boundedMemory);
+        final AnalysisBudget budget = new AnalysisBudget(analysisOptions.wallClockMillis, analysisOptions.cpuMillis, analysisOptions.maxMethods);
+        // partial results written if a budget is exceeded
+        Map<String, ApkDecoder.IntentFilters> manifestResult = null;
+        Set<String> stringSet = null;
+        boolean jsonWritten = false;
+        SharedWorkList<Path, ComponentResult> components = null;
+        final boolean showProgress = analysisOptions.scheduler == null || analysisOptions.scheduler.getWorkerCount() == 1;
+        int count = 0;
+        int total = 0;
+        try
+        {
+            System.out.println(String.format("Decoding apk file: %s", source.toString()));
+            source.decode(rootPath, budget);
 
             System.out.println("Parsing application manifest");
-            final Map<String, ApkDecoder.IntentFilters> manifestResult = ApkDecoder.decodeManifest(sourcePath);
+            budget.enterStage(AnalysisBudget.Stage.MANIFEST);
+            manifestResult = source.decodeManifest();
 
             System.out.println("Indexing smali code");
-            final SmaliProjectIndexer indexer = new SmaliProjectIndexer(rootPath);
+            budget.enterStage(AnalysisBudget.Stage.INDEX);
+            final SmaliProjectIndexer indexer = new SmaliProjectIndexer(rootPath, index, budget);
             indexer.indexProject();
 
-            int count = 0;
+            // write parsing results to file
+            if (Files.notExists(outputPath.toAbsolutePath().getParent(), LinkOption.NOFOLLOW_LINKS))
+                Files.createDirectories(outputPath);
+
+            final String configuration = AnalysisState.hashConfiguration(ApplicationProperties.getInstance().getMaxDepth());
+            final AnalysisState previousState = readPreviousState(analysisOptions.previousStatePath, configuration);
+            final AnalysisState currentState = analysisOptions.saveState ? new AnalysisState(configuration) : null;
+            final Map<String, String> classHashes = Maps.newConcurrentMap();
+            final Function<String, String> hashFunction = className -> classHashes.computeIfAbsent(className, name -> hashClass(index, name));
+
+            int reused = 0;
             long numInvocations = 0;
             System.out.println("Parsing found components");
-            final Map<String, ParsingResult> result = Maps.newHashMap();
-            final Set<String> stringSet = Sets.newHashSet();
-            for (final Path filePath : indexer.getComponentList())
-            {
-                System.out.print(buildProgressBar(count, indexer.getComponentList().size(), 60));
-                final String componentName = getComponentName(rootPath, filePath);
-                final SetMultimap<String, String> intentResults = HashMultimap.create();
-                final SetMultimap<String, String> bundleResults = HashMultimap.create();
-                for (final String methodName : Constants.COMPONENT_ENTRY_METHODS)
+            budget.enterStage(AnalysisBudget.Stage.PARSE);
+            stringSet = analysisOptions.boundedMemory ?
+                    new SpillingStringSet(spillPath.resolve("strings"), ApplicationProperties.getInstance().getStringBufferSize()) :
+                    Sets.newHashSet();
+            final Path jsonOutputPath = getOutputPath(outputPath, source.getFileName(), ".json");
+            System.out.println(String.format("Writing JSON results to file: %s", jsonOutputPath.toString()));
+
+            // idle workers of the scheduler may parse components of this APK file, results are still written in order
+            components = new SharedWorkList<>(
+                    Lists.newArrayList(indexer.getComponentList()),
+                    filePath -> budget.runAccounted(() -> parseComponent(rootPath, filePath, index, previousState,
+                            currentState != null, hashFunction, budget)));
+            total = components.size();
+            if (analysisOptions.scheduler != null)
+                analysisOptions.scheduler.share(components);
+            try (final OutputWriter.JsonObjectWriter jsonWriter = OutputWriter.openJSONObjectFile(jsonOutputPath))
+            {
+                jsonWritten = true;
+                while (count < components.size())
                 {
-                    final Map<String, String> registerMap = Maps.newHashMap();
-                    SmaliFileParser.parseMethod(filePath, methodName, indexer.getIndexMap(), registerMap, intentResults, bundleResults, stringSet, 0);
+                    final boolean claimed = components.runNext();
+                    while (count < components.size() && (!claimed || components.isDone(count)))
+                    {
+                        if (showProgress)
+                            System.out.print(buildProgressBar(count, components.size(), 60));
+                        final ComponentResult component = components.take(count);
+                        if (component.reused)
+                            reused++;
+
+                        if (currentState != null)
+                            currentState.putComponent(component.componentName, component.dependencies, hashFunction, component.results, component.strings);
+                        stringSet.addAll(component.strings);
+
+                        numInvocations += component.results.getInvocationCount();
+
+                        // component results are streamed to the json file as soon as they are complete
+                        if (!component.results.isEmpty())
+                            jsonWriter.write(component.componentName, new ParsingResult(component.results));
+
+                        count++;
+                    }
                 }
-
-                numInvocations += intentResults.values().size();
-                numInvocations += bundleResults.values().size();
-
-                if (!intentResults.isEmpty() || !bundleResults.isEmpty())
-                    result.put(componentName, new ParsingResult(intentResults.asMap(), bundleResults.asMap()));
-
-                count++;
+            }
+            finally
+            {
+                components.cancel();
+                if (analysisOptions.scheduler != null)
+                    analysisOptions.scheduler.withdraw(components);
             }
 
-            System.out.print(clearProgressBar(60));
+            if (showProgress)
+                System.out.print(clearProgressBar(60));
             System.out.println("Tracked " + numInvocations + " invocations");
+            if (previousState != null)
+                System.out.println(String.format("Reused results of %d of %d components", reused, count));
 
-            // write parsing results to file
-            if (Files.notExists(outputPath.toAbsolutePath().getParent(), LinkOption.NOFOLLOW_LINKS))
-                Files.createDirectories(outputPath);
-
-            final Path jsonOutputPath = outputPath.resolve(sourcePath.getFileName().toString().replace(".apk", ".json"));
-            System.out.println(String.format("Writing JSON results to file: %s", jsonOutputPath.toString()));
-            OutputWriter.writeToJSONFile(jsonOutputPath, result);
+            if (currentState != null)
+            {
+                final Path stateOutputPath = getOutputPath(outputPath, source.getFileName(), ".state");
+                System.out.println(String.format("Writing STATE to file: %s", stateOutputPath.toString()));
+                currentState.write(stateOutputPath);
+            }
 
-            final Path metaOutputPath = outputPath.resolve(sourcePath.getFileName().toString().replace(".apk", ".meta"));
+            final Path metaOutputPath = getOutputPath(outputPath, source.getFileName(), ".meta");
             System.out.println(String.format("Writing META results to file: %s", metaOutputPath.toString()));
             OutputWriter.writeToJSONFile(metaOutputPath, manifestResult);
 
-            final Path stringOutputPath = outputPath.resolve(sourcePath.getFileName().toString().replace(".apk", ".str"));
+            final Path stringOutputPath = getOutputPath(outputPath, source.getFileName(), ".str");
             System.out.println(String.format("Writing STRING results to file: %s", stringOutputPath.toString()));
             OutputWriter.writeToStringFile(stringOutputPath, stringSet);
+            Files.deleteIfExists(getOutputPath(outputPath, source.getFileName(), ".truncated"));
+            return true;
+        }
+        catch (BudgetExceededException e)
+        {
+            if (showProgress && jsonWritten)
+                System.out.print(clearProgressBar(60));
+            System.out.println(String.format("Truncating results of apk file: %s, %s", source.toString(), e.getMessage()));
+            LOG.warn("Truncating results of apk file {}: {}", source.toString(), e.getMessage());
+
+            final Truncation truncation = new Truncation();
+            truncation.fileName = source.getFileName();
+            truncation.stage = e.getStage();
+            truncation.limit = e.getLimit();
+            truncation.elapsedMillis = e.getElapsedMillis();
+            truncation.visitedMethods = budget.getVisitedMethods();
+            truncation.parsedComponents = count;
+            truncation.totalComponents = total;
+            analysisOptions.truncations.add(truncation);
+            try
+            {
+                writeTruncatedResults(source, outputPath, truncation, manifestResult, stringSet, jsonWritten);
+                return true;
+            }
+            catch (IOException ex)
+            {
+                System.err.println(String.format("Failed writing truncated results of apk file: %s", source.toString()));
+                ex.printStackTrace();
+                LOG.error(ex);
+                return false;
+            }
         }
         catch (Exception e)
         {
-            System.err.println(String.format("Failed analyzing apk file: %s", sourcePath.toString()));
+            System.err.println(String.format("Failed analyzing apk file: %s", source.toString()));
             e.printStackTrace();
             LOG.error(e);
+            // the streamed json file is valid but lacks the components after the failure
+            if (jsonWritten)
+                deleteOutput(getOutputPath(outputPath, source.getFileName(), ".json"));
+            return false;
         }
         finally
         {
-            ApkDecoder.deleteTemporaryFiles(rootPath);
+            // stops components of this APK file still parsed by other workers
+            budget.cancel();
+            // other workers must not read the index or the scratch directory anymore once they are released
+            if (components != null)
+                components.awaitIdle();
+            try
+            {
+                index.close();
+            }
+            catch (IOException e)
+            {
+                LOG.error("Failed closing index:", e);
+            }
+            analysisOptions.scratchSpace.release(rootPath);
+            ApkDecoder.deleteTemporaryFiles(spillPath);
+        }
+    }
+
+    private static ComponentResult parseComponent(final Path rootPath, final Path filePath, final ClassIndex index,
+                                                  final AnalysisState previousState, final boolean trackDependencies,
+                                                  final Function<String, String> hashFunction, final AnalysisBudget budget) throws IOException
+    {
+        final ComponentResult component = new ComponentResult(getComponentName(rootPath, filePath));
+        final AnalysisState.ComponentState previousComponent = previousState != null ? previousState.getComponent(component.componentName) : null;
+        if (previousComponent != null && previousState.isUpToDate(previousComponent, hashFunction))
+        {
+            previousComponent.copyTo(component.results, component.strings);
+            component.dependencies = previousComponent.getDependencies();
+            component.reused = true;
+            return component;
+        }
+
+        final RecordingClassIndex recordingIndex = new RecordingClassIndex(index);
+        if (trackDependencies)
+            recordingIndex.getRecordedClasses().add(SmaliFileParser.parseSmaliHeader(filePath).getClassName());
+        for (final String methodName : Constants.COMPONENT_ENTRY_METHODS)
+        {
+            final Map<String, String> registerMap = Maps.newHashMap();
+            SmaliFileParser.parseMethod(filePath, methodName, recordingIndex, registerMap, Sets.newHashSet(), component.results, component.strings, budget, 0);
+        }
+        component.dependencies = recordingIndex.getRecordedClasses();
+        return component;
+    }
+
+    private static void writeTruncatedResults(final ApkSource source, final Path outputPath, final Truncation truncation,
+                                              final Map<String, ApkDecoder.IntentFilters> manifestResult, final Set<String> stringSet,
+                                              final boolean jsonWritten) throws IOException
+    {
+        // components parsed completely before the budget was exceeded are already streamed to the json file
+        if (!jsonWritten)
+            OutputWriter.writeToJSONFile(getOutputPath(outputPath, source.getFileName(), ".json"), Collections.emptyMap());
+        OutputWriter.writeToJSONFile(getOutputPath(outputPath, source.getFileName(), ".meta"),
+                manifestResult != null ? manifestResult : Collections.emptyMap());
+        OutputWriter.writeToStringFile(getOutputPath(outputPath, source.getFileName(), ".str"),
+                stringSet != null ? stringSet : Collections.emptySet());
+        // a state of truncated results would mark the missing components as up to date
+        Files.deleteIfExists(getOutputPath(outputPath, source.getFileName(), ".state"));
+
+        final Path truncatedOutputPath = getOutputPath(outputPath, source.getFileName(), ".truncated");
+        System.out.println(String.format("Writing TRUNCATION info to file: %s", truncatedOutputPath.toString()));
+        OutputWriter.writeToJSONFile(truncatedOutputPath, truncation);
+    }
+
+    private static void printBudgetSummary(final List<Truncation> truncations)
+    {
+        if (truncations.isEmpty())
+            return;
+
+        System.out.println(String.format("%d apk files exceeded their budget:", truncations.size()));
+        synchronized (truncations)
+        {
+            for (final Truncation truncation : truncations)
+            {
+                System.out.println(String.format("  %s: %s budget exceeded in stage %s after %d seconds, parsed %d of %d components",
+                        truncation.fileName, truncation.limit.name().toLowerCase(), truncation.stage.name().toLowerCase(),
+                        TimeUnit.MILLISECONDS.toSeconds(truncation.elapsedMillis), truncation.parsedComponents, truncation.totalComponents));
+            }
+        }
+    }
+
+    private static void printSchedulingReport(final BatchScheduler.Report report, final int workerCount)
+    {
+        System.out.println(String.format("Analyzed %d apk files with %d workers in %d seconds", report.getTimings().size(), workerCount,
+                TimeUnit.MILLISECONDS.toSeconds(report.getMakespanMillis())));
+        System.out.println(String.format("Tail latency: %d seconds at %.0f%% worker utilization, %d seconds spent helping with components",
+                TimeUnit.MILLISECONDS.toSeconds(report.getTailMillis()), report.getTailUtilization() * 100,
+                TimeUnit.MILLISECONDS.toSeconds(report.getHelpMillis())));
+        for (final BatchScheduler.Timing timing : report.getTimings().subList(0, Math.min(5, report.getTimings().size())))
+        {
+            System.out.println(String.format("  %s: %d seconds, estimated cost %d (%d dex files, %d classes, %d methods)",
+                    timing.getCost().getFilePath().getFileName().toString(), TimeUnit.MILLISECONDS.toSeconds(timing.getDurationMillis()),
+                    timing.getCost().getCost(), timing.getCost().getDexCount(), timing.getCost().getClassCount(), timing.getCost().getMethodCount()));
+        }
+    }
+
+    private static Path getOutputPath(final Path outputPath, final String fileName, final String extension)
+    {
+        // bundles keep their extension, so their results do not collide with an APK file of the same name
+        final int extensionIndex = ApkBundle.isBundle(fileName) ? -1 : fileName.lastIndexOf('.');
+        return outputPath.resolve((extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName) + extension);
+    }
+
+    private static void deleteOutput(final Path path)
+    {
+        try
+        {
+            Files.deleteIfExists(path);
         }
+        catch (IOException e)
+        {
+            LOG.error("Failed deleting output file:", e);
+        }
+    }
+
+    private static List<Path> getOutputPaths(final Path outputPath, final String fileName)
+    {
+        return Lists.newArrayList(getOutputPath(outputPath, fileName, ".json"),
+                getOutputPath(outputPath, fileName, ".meta"), getOutputPath(outputPath, fileName, ".str"));
+    }
+
+    private static AnalysisState readPreviousState(final Path previousStatePath, final String configuration) throws IOException
+    {
+        if (previousStatePath == null)
+            return null;
+
+        final AnalysisState previousState = AnalysisState.read(previousStatePath);
+        if (!configuration.equals(previousState.getConfiguration()))
+        {
+            System.out.println("Ignoring previous state, it was created with a different maximum depth, sink table or analyzer version");
+            return null;
+        }
+        return previousState;
+    }
+
+    private static String hashClass(final ClassIndex index, final String className)
+    {
+        final IndexEntry entry = index.get(className);
+        if (entry == null)
+            return "";
+
+        try
+        {
+            return MoreFiles.asByteSource(entry.getFilePath()).hash(Hashing.sha256()).toString();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(String.format("Failed hashing class: %s", className), e);
+        }
+    }
+
+    private static ClassIndex createClassIndex(final Path spillPath, final String indexType, final boolean boundedMemory)
+    {
+        // bounded memory mode takes precedence over the configured index type, only the disk index is bounded
+        if (boundedMemory || "disk".equals(indexType))
+            return new DiskClassIndex(spillPath.resolve("index.bin"), ApplicationProperties.getInstance().getIndexCacheSize());
+        if ("offheap".equals(indexType))
+            return new OffHeapClassIndex();
+        return new HeapClassIndex();
     }
 
     private static String getComponentName(final Path rootPath, final Path filePath)
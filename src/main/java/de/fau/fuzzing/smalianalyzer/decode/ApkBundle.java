@@ -0,0 +1,181 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Handles containers bundling the base and split APK files of a single application, like .xapk files of
+ * third party stores and .apks files created by bundletool.
+ */
+public class ApkBundle
+{
+    private static final Logger LOG = LogManager.getLogger(ApkBundle.class.getName());
+
+    public static final String INPUT_GLOB = "*.{apk,xapk,apks}";
+    public static final String MANIFEST_ENTRY = "AndroidManifest.xml";
+
+    public static boolean isSupportedInput(final Path filePath)
+    {
+        return isSupportedInput(filePath.getFileName().toString());
+    }
+
+    public static boolean isSupportedInput(final String fileName)
+    {
+        return fileName.endsWith(".apk") || isBundle(fileName);
+    }
+
+    public static boolean isBundle(final Path filePath)
+    {
+        return isBundle(filePath.getFileName().toString());
+    }
+
+    public static boolean isBundle(final String fileName)
+    {
+        return fileName.endsWith(".xapk") || fileName.endsWith(".apks");
+    }
+
+    /**
+     * Extracts all APK files contained in the bundle into the target directory.
+     *
+     * @return the paths of the extracted APK files, starting with the base APK file
+     */
+    public static List<Path> extract(final Path bundleFilePath, final Path targetPath) throws IOException
+    {
+        LOG.info("Extracting bundle: {}", bundleFilePath.toString());
+        Files.createDirectories(targetPath);
+
+        final List<Path> apkFilePaths = Lists.newArrayList();
+        try (ZipFile zipFile = new ZipFile(bundleFilePath.toFile()))
+        {
+            final List<String> entryNames = Lists.newArrayList();
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements())
+            {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory())
+                    entryNames.add(entry.getName());
+            }
+
+            final Predicate<String> isSplit = entryName -> isSplit(entryName, () ->
+            {
+                try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(entryName)))
+                {
+                    return readManifest(inputStream);
+                }
+            });
+            for (final String entryName : selectSplits(entryNames, isSplit))
+            {
+                // only the file name is used, entries of different folders are prefixed to keep their names unique
+                final String fileName = Paths.get(entryName).getFileName().toString();
+                final Path apkFilePath = targetPath.resolve(String.format("%03d-%s", apkFilePaths.size(), fileName));
+                try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(entryName)))
+                {
+                    Files.copy(inputStream, apkFilePath);
+                }
+                LOG.info("Extracted split: {}", entryName);
+                apkFilePaths.add(apkFilePath);
+            }
+        }
+
+        if (apkFilePaths.isEmpty())
+            throw new IllegalArgumentException(String.format("Bundle does not contain any APK files: %s", bundleFilePath.toString()));
+        return apkFilePaths;
+    }
+
+    /**
+     * Selects the entries of a bundle which should be analyzed. The base APK is the first entry named like the base
+     * APK of bundletool or the stores, otherwise the first entry whose manifest does not declare a split.
+     *
+     * @param isSplit tests if the manifest of an entry declares a split, only called if no entry is named like a base APK
+     * @return the names of the selected APK entries, starting with the base APK
+     */
+    public static List<String> selectSplits(final List<String> entryNames, final Predicate<String> isSplit)
+    {
+        final List<String> splitEntries = Lists.newArrayList();
+        final List<String> standaloneEntries = Lists.newArrayList();
+        for (final String entryName : entryNames)
+        {
+            if (!entryName.endsWith(".apk"))
+                continue;
+            if (entryName.startsWith("standalones/"))
+                standaloneEntries.add(entryName);
+            else
+                splitEntries.add(entryName);
+        }
+
+        // standalone APK files of bundletool duplicate the code of the splits and are only used without splits
+        if (splitEntries.isEmpty() && !standaloneEntries.isEmpty())
+            splitEntries.add(standaloneEntries.get(0));
+
+        String baseEntry = splitEntries.stream().filter(entryName -> isBaseApk(entryName.substring(entryName.lastIndexOf('/') + 1)))
+                .findFirst().orElse(null);
+        if (baseEntry == null)
+            baseEntry = splitEntries.stream().filter(isSplit.negate()).findFirst().orElse(null);
+        if (baseEntry != null)
+        {
+            splitEntries.remove(baseEntry);
+            splitEntries.add(0, baseEntry);
+        }
+        return splitEntries;
+    }
+
+    /**
+     * Reads the binary manifest of an APK file.
+     *
+     * @return the manifest, or null if the APK file does not contain one
+     */
+    public static byte[] readManifest(final InputStream inputStream) throws IOException
+    {
+        final ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        ZipEntry entry;
+        while ((entry = zipInputStream.getNextEntry()) != null)
+        {
+            if (entry.getName().equals(MANIFEST_ENTRY))
+                return ByteStreams.toByteArray(zipInputStream);
+        }
+        return null;
+    }
+
+    /**
+     * Tests if the manifest of an APK file declares a split. APK files which can not be read count as splits,
+     * so they are never chosen as base APK.
+     */
+    public static boolean isSplit(final String entryName, final ManifestSupplier manifestSupplier)
+    {
+        try
+        {
+            final byte[] manifest = manifestSupplier.get();
+            return manifest == null || BinaryManifestDecoder.isSplit(manifest);
+        }
+        catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e)
+        {
+            LOG.warn("Failed reading manifest of bundle entry {}: {}", entryName, e.getMessage());
+            return true;
+        }
+    }
+
+    public interface ManifestSupplier
+    {
+        byte[] get() throws IOException;
+    }
+
+    private static boolean isBaseApk(final String fileName)
+    {
+        // base-master.apk in .apks files, base.apk in .xapk files
+        return fileName.equals("base.apk") || fileName.startsWith("base-master");
+    }
+}
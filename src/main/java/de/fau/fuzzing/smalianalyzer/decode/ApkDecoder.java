@@ -3,6 +3,7 @@ package de.fau.fuzzing.smalianalyzer.decode;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import de.fau.fuzzing.smalianalyzer.AnalysisBudget;
 import de.fau.fuzzing.smalianalyzer.ApplicationProperties;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
@@ -13,6 +14,7 @@ import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.dexbacked.ZipDexContainer;
+import org.jf.dexlib2.dexbacked.raw.HeaderItem;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -20,6 +22,7 @@ import java.io.InputStreamReader;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -61,12 +64,61 @@ public class ApkDecoder
     }
 
     public static void decode(final Path apkFilePath, final Path outputFilePath) throws IOException
+    {
+        decode(Collections.singletonList(apkFilePath), outputFilePath, AnalysisBudget.unlimited());
+    }
+
+    /**
+     * Disassembles the dex files of all given APK files of a single application into one smali project. Dex files
+     * contained in more than one of the APK files are only disassembled once.
+     *
+     * @return the APK files containing code
+     */
+    public static List<Path> decode(final List<Path> apkFilePaths, final Path outputFilePath, final AnalysisBudget budget) throws IOException
     {
         final PathMatcher fileMatcher = FileSystems.getDefault().getPathMatcher("glob:**.apk");
-        if (!fileMatcher.matches(apkFilePath))
-            throw new IllegalArgumentException(String.format("Specified file is not an APK file %s", apkFilePath.toString()));
+        for (final Path apkFilePath : apkFilePaths)
+        {
+            if (!fileMatcher.matches(apkFilePath))
+                throw new IllegalArgumentException(String.format("Specified file is not an APK file %s", apkFilePath.toString()));
+        }
+
+        final List<Path> codeFilePaths = Lists.newArrayList();
+        final Set<String> decodedSignatures = Sets.newHashSet();
+        for (final Path apkFilePath : apkFilePaths)
+        {
+            LOG.info("Decoding .apk file: {}", apkFilePath.toString());
+
+            // decode the dex file
+            final ZipDexContainer dexContainer = (ZipDexContainer) DexFileFactory.loadDexContainer(apkFilePath.toFile(), Opcodes.getDefault());
+            for (final String entryName : dexContainer.getDexEntryNames())
+            {
+                if (disassemble(dexContainer.getEntry(entryName), entryName, outputFilePath, decodedSignatures, budget) && !codeFilePaths.contains(apkFilePath))
+                    codeFilePaths.add(apkFilePath);
+            }
+        }
+        return codeFilePaths;
+    }
 
-        LOG.info("Decoding .apk file: {}", apkFilePath.toString());
+    /**
+     * Disassembles a single dex file into the smali project, unless a dex file with the same signature was already
+     * disassembled from another split. Stops early once the budget is exceeded.
+     *
+     * @return true if the dex file was disassembled
+     */
+    public static boolean disassemble(final DexBackedDexFile dexFile, final String entryName, final Path outputFilePath,
+                                      final Set<String> decodedSignatures, final AnalysisBudget budget)
+    {
+        budget.check();
+        LOG.info("Found .dex entry: {}", entryName);
+        if (dexFile.isOdexFile())
+            throw new IllegalStateException("Can not disassemble .odex file without deodexing it.");
+
+        if (!decodedSignatures.add(getSignature(dexFile)))
+        {
+            LOG.info("Skipping .dex entry already decoded from another split: {}", entryName);
+            return false;
+        }
 
         // set baksmali options
         final BaksmaliOptions options = new BaksmaliOptions();
@@ -84,95 +136,103 @@ public class ApkDecoder
         // query the number of available processors
         int jobs = Runtime.getRuntime().availableProcessors();
 
-        // decode the dex file
-        final ZipDexContainer dexContainer = (ZipDexContainer) DexFileFactory.loadDexContainer(apkFilePath.toFile(), Opcodes.getDefault());
-        for (final String entryName : dexContainer.getDexEntryNames())
-        {
-            LOG.info("Found .dex entry: {}", entryName);
-            final DexBackedDexFile dexFile = DexFileFactory.loadDexEntry(apkFilePath.toFile(), entryName, true, Opcodes.getDefault());
-            if (dexFile.isOdexFile())
-                throw new IllegalStateException("Can not disassemble .odex file without deodexing it.");
+        Baksmali.disassembleDexFile(new BudgetedDexFile(dexFile, budget), outputFilePath.toFile(), jobs, options);
+        budget.check();
+        return true;
+    }
 
-            Baksmali.disassembleDexFile(dexFile, outputFilePath.toFile(), jobs, options);
-        }
+    private static String getSignature(final DexBackedDexFile dexFile)
+    {
+        // the header of each dex file contains the SHA-1 signature of its content
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < HeaderItem.SIGNATURE_SIZE; ++i)
+            sb.append(String.format("%02x", dexFile.readUbyte(HeaderItem.SIGNATURE_OFFSET + i)));
+        return sb.toString();
     }
 
     public static Map<String, IntentFilters> decodeManifest(final Path apkFilePath) throws IOException
     {
         LOG.info("Decoding AndroidManifest.xml file");
-        final Map<String, IntentFilters> result = Maps.newHashMap();
         final String[] cmd = {ApplicationProperties.getInstance().getAAPTPath(), "d", "xmltree", apkFilePath.toString(), "AndroidManifest.xml"};
         final Process process = Runtime.getRuntime().exec(cmd);
         try (final BufferedReader inputReader = new BufferedReader(new InputStreamReader(process.getInputStream())))
         {
             try (final BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream())))
             {
-                IntentFilters filters = null;
-                String line, componentName = "";
-                boolean dataMode = false;
-                while ((line = inputReader.readLine()) != null)
+                final Map<String, IntentFilters> result = parseXmlTree(inputReader);
+
+                String line;
+                while ((line = errorReader.readLine()) != null)
                 {
-                    if (dataMode)
-                    {
+                    LOG.error(line);
+                }
 
-                        List<String> names = Lists.newArrayList("android:scheme", "android:host",
-                                "android:port", "android:path", "android:pathPrefix", "android:pathPattern");
-                        Map<String, String> dataValues = Maps.newHashMap();
-                        while ((line = inputReader.readLine()) != null)
-                        {
-                            line = line.trim();
-                            if (!line.startsWith("A: "))
-                                break;
-
-                            final Matcher matcher = Pattern.compile("A: .*\\(.*\\)=.* \\(Raw: .*\\)").matcher(line);
-                            if (matcher.find())
-                            {
-                                String name = line.substring(line.indexOf(' ') + 1, line.indexOf('('));
-                                String value = line.substring(line.indexOf('"') + 1);
-                                dataValues.put(name, value.substring(0, value.indexOf('"')));
-                            }
-                        }
-
-                        final String dataString = buildDataURI(dataValues);
-                        filters.data.add(dataString);
-                        dataMode = false;
-                    }
+                return result;
+            }
+        }
+    }
 
-                    line = line.trim();
-                    String dataTag = getDataTag(line);
-                    switch (dataTag)
+    /**
+     * Parses the intent filters from the output of aapt's xmltree dump of the AndroidManifest.xml file.
+     */
+    public static Map<String, IntentFilters> parseXmlTree(final BufferedReader inputReader) throws IOException
+    {
+        final Map<String, IntentFilters> result = Maps.newHashMap();
+        IntentFilters filters = null;
+        String line, componentName = "";
+        boolean dataMode = false;
+        while ((line = inputReader.readLine()) != null)
+        {
+            if (dataMode)
+            {
+                // the current line already is the first attribute of the data element
+                Map<String, String> dataValues = Maps.newHashMap();
+                while (line != null && (line = line.trim()).startsWith("A: "))
+                {
+                    final Matcher matcher = Pattern.compile("A: .*\\(.*\\)=.* \\(Raw: .*\\)").matcher(line);
+                    if (matcher.find())
                     {
-                        case "activity":
-                        case "service":
-                        case "receiver":
-                            if (filters != null && !filters.isEmpty())
-                                result.put(componentName, filters);
-                            filters = new IntentFilters();
-                            componentName = getAttributeValue(inputReader, line, "android:name");
-                            break;
-                        case "action":
-                            filters.actions.add(getAttributeValue(inputReader, line, "android:name"));
-                            break;
-                        case "category":
-                            filters.categories.add(getAttributeValue(inputReader, line, "android:name"));
-                            break;
-                        case "data":
-                            dataMode = true;
-                            break;
+                        String name = line.substring(line.indexOf(' ') + 1, line.indexOf('('));
+                        String value = line.substring(line.indexOf('"') + 1);
+                        dataValues.put(name, value.substring(0, value.indexOf('"')));
                     }
+                    line = inputReader.readLine();
                 }
 
-                if (filters != null && !filters.isEmpty())
-                    result.put(componentName, filters);
-
-                while ((line = errorReader.readLine()) != null)
-                {
-                    LOG.error(line);
-                }
+                final String dataString = buildDataURI(dataValues);
+                filters.data.add(dataString);
+                dataMode = false;
+                if (line == null)
+                    break;
+            }
 
-                return result;
+            line = line.trim();
+            String dataTag = getDataTag(line);
+            switch (dataTag)
+            {
+                case "activity":
+                case "service":
+                case "receiver":
+                    if (filters != null && !filters.isEmpty())
+                        result.put(componentName, filters);
+                    filters = new IntentFilters();
+                    componentName = getAttributeValue(inputReader, line, "android:name");
+                    break;
+                case "action":
+                    filters.actions.add(getAttributeValue(inputReader, line, "android:name"));
+                    break;
+                case "category":
+                    filters.categories.add(getAttributeValue(inputReader, line, "android:name"));
+                    break;
+                case "data":
+                    dataMode = true;
+                    break;
             }
         }
+
+        if (filters != null && !filters.isEmpty())
+            result.put(componentName, filters);
+        return result;
     }
 
     private static String getDataTag(final String line)
@@ -201,7 +261,7 @@ public class ApkDecoder
         return "";
     }
 
-    private static String buildDataURI(final Map<String, String> values)
+    static String buildDataURI(final Map<String, String> values)
     {
         // <scheme>://<host>:<port>[<path>|<pathPrefix>|<pathPattern>]
         final StringBuilder sb = new StringBuilder();
@@ -0,0 +1,36 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import de.fau.fuzzing.smalianalyzer.AnalysisBudget;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * The input of a single analysis: an APK file or bundle, either stored on disk or held in memory.
+ */
+public interface ApkSource
+{
+    /**
+     * @return the file name of the APK file or bundle, which the output files are named after
+     */
+    String getFileName();
+
+    /**
+     * @return the directory containing the input, or null if it is not stored on disk
+     */
+    Path getParentPath();
+
+    /**
+     * Disassembles the dex files of the input into a smali project below the output path.
+     *
+     * @throws de.fau.fuzzing.smalianalyzer.BudgetExceededException if the budget is exceeded while decoding
+     */
+    void decode(Path outputPath, AnalysisBudget budget) throws IOException;
+
+    /**
+     * Decodes the intent filters of the base APK and of all APKs containing code. Must be called after
+     * {@link #decode(Path, AnalysisBudget)}.
+     */
+    Map<String, ApkDecoder.IntentFilters> decodeManifest() throws IOException;
+}
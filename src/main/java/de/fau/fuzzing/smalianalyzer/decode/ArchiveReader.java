@@ -0,0 +1,140 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import com.google.common.io.ByteStreams;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the entries of a zip or tar archive sequentially from a stream, so archives of many APK files can be
+ * analyzed without extracting them and without seeking, e.g. when they are piped through stdin.
+ */
+public class ArchiveReader
+{
+    private static final Logger LOG = LogManager.getLogger(ArchiveReader.class.getName());
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    public interface EntryHandler
+    {
+        void handle(String fileName, byte[] content) throws IOException;
+    }
+
+    public static boolean isArchive(final String fileName)
+    {
+        return fileName.endsWith(".zip") || fileName.endsWith(".tar");
+    }
+
+    /**
+     * Passes the content of every entry accepted by the filter to the handler. The format of the archive is
+     * detected from its first bytes.
+     */
+    public static void read(final InputStream inputStream, final Predicate<String> filter, final EntryHandler handler) throws IOException
+    {
+        final BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        bufferedInputStream.mark(4);
+        final byte[] magic = new byte[4];
+        final int read = ByteStreams.read(bufferedInputStream, magic, 0, magic.length);
+        bufferedInputStream.reset();
+
+        if (read == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4)
+            readZip(bufferedInputStream, filter, handler);
+        else
+            readTar(bufferedInputStream, filter, handler);
+    }
+
+    private static void readZip(final InputStream inputStream, final Predicate<String> filter, final EntryHandler handler) throws IOException
+    {
+        final ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        ZipEntry entry;
+        while ((entry = zipInputStream.getNextEntry()) != null)
+        {
+            final String fileName = getFileName(entry.getName());
+            if (!entry.isDirectory() && filter.test(fileName))
+                handler.handle(fileName, ByteStreams.toByteArray(zipInputStream));
+        }
+    }
+
+    private static void readTar(final InputStream inputStream, final Predicate<String> filter, final EntryHandler handler) throws IOException
+    {
+        final byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+        while (true)
+        {
+            ByteStreams.readFully(inputStream, header);
+            if (isZeroBlock(header))
+                break;
+
+            String name = readString(header, 0, 100);
+            if (longName != null)
+            {
+                name = longName;
+                longName = null;
+            }
+            else if (readString(header, 257, 5).equals("ustar") && header[345] != 0)
+            {
+                name = readString(header, 345, 155) + "/" + name;
+            }
+            final String octalSize = readString(header, 124, 12).trim();
+            final long size = octalSize.isEmpty() ? 0 : Long.parseLong(octalSize, 8);
+            final long padding = (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+            final char type = (char) header[156];
+
+            if (type == 'L')
+            {
+                // gnu extension storing the name of the next entry, if it is longer than 100 characters
+                final byte[] content = new byte[(int) size];
+                ByteStreams.readFully(inputStream, content);
+                longName = readString(content, 0, content.length);
+            }
+            else if ((type == '0' || type == 0) && filter.test(getFileName(name)))
+            {
+                if (size > Integer.MAX_VALUE - 8)
+                {
+                    LOG.warn("Skipping archive entry exceeding the maximum array size: {}", name);
+                    ByteStreams.skipFully(inputStream, size);
+                }
+                else
+                {
+                    final byte[] content = new byte[(int) size];
+                    ByteStreams.readFully(inputStream, content);
+                    handler.handle(getFileName(name), content);
+                }
+            }
+            else
+            {
+                ByteStreams.skipFully(inputStream, size);
+            }
+            ByteStreams.skipFully(inputStream, padding);
+        }
+    }
+
+    private static boolean isZeroBlock(final byte[] block)
+    {
+        for (final byte b : block)
+        {
+            if (b != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static String readString(final byte[] bytes, final int offset, final int length)
+    {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0)
+            end++;
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String getFileName(final String entryName)
+    {
+        return entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+}
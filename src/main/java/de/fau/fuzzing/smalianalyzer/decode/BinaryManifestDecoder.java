@@ -0,0 +1,201 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Decodes the intent filters of a binary AndroidManifest.xml directly from its bytes, without running aapt. The
+ * result matches the one of {@link ApkDecoder#decodeManifest(java.nio.file.Path)}, which parses the xmltree dump
+ * of aapt instead.
+ */
+public class BinaryManifestDecoder
+{
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int UTF8_FLAG = 1 << 8;
+    private static final int NO_ENTRY = 0xFFFFFFFF;
+    private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+
+    public static Map<String, ApkDecoder.IntentFilters> decode(final byte[] manifest)
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN);
+        if (manifest.length < 8 || getUnsignedShort(buffer, 0) != RES_XML_TYPE)
+            throw new IllegalArgumentException("Manifest is not a binary xml file");
+
+        final Map<String, ApkDecoder.IntentFilters> result = Maps.newHashMap();
+        ApkDecoder.IntentFilters filters = null;
+        String componentName = "";
+        String[] strings = new String[0];
+
+        int offset = getUnsignedShort(buffer, 2);
+        while (offset + 8 <= manifest.length)
+        {
+            final int type = getUnsignedShort(buffer, offset);
+            final int headerSize = getUnsignedShort(buffer, offset + 2);
+            final int size = buffer.getInt(offset + 4);
+            if (size < 8 || offset + size > manifest.length)
+                throw new IllegalArgumentException(String.format("Invalid chunk at offset %d", offset));
+
+            if (type == RES_STRING_POOL_TYPE)
+            {
+                strings = readStringPool(buffer, offset, headerSize);
+            }
+            else if (type == RES_XML_START_ELEMENT_TYPE)
+            {
+                final int elementOffset = offset + headerSize;
+                final String tag = getString(strings, buffer.getInt(elementOffset + 4));
+                final Map<String, String> attributes = readAttributes(buffer, elementOffset, strings);
+                switch (tag)
+                {
+                    case "activity":
+                    case "service":
+                    case "receiver":
+                        if (filters != null && !filters.isEmpty())
+                            result.put(componentName, filters);
+                        filters = new ApkDecoder.IntentFilters();
+                        componentName = attributes.getOrDefault("android:name", "");
+                        break;
+                    case "action":
+                        if (filters != null)
+                            filters.getActions().add(attributes.getOrDefault("android:name", ""));
+                        break;
+                    case "category":
+                        if (filters != null)
+                            filters.getCategories().add(attributes.getOrDefault("android:name", ""));
+                        break;
+                    case "data":
+                        if (filters != null)
+                            filters.getData().add(ApkDecoder.buildDataURI(attributes));
+                        break;
+                }
+            }
+            offset += size;
+        }
+
+        if (filters != null && !filters.isEmpty())
+            result.put(componentName, filters);
+        return result;
+    }
+
+    /**
+     * Tests if the root element of the manifest has a split attribute, which marks configuration and
+     * feature splits of an application.
+     */
+    public static boolean isSplit(final byte[] manifest)
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN);
+        if (manifest.length < 8 || getUnsignedShort(buffer, 0) != RES_XML_TYPE)
+            throw new IllegalArgumentException("Manifest is not a binary xml file");
+
+        String[] strings = new String[0];
+        int offset = getUnsignedShort(buffer, 2);
+        while (offset + 8 <= manifest.length)
+        {
+            final int type = getUnsignedShort(buffer, offset);
+            final int headerSize = getUnsignedShort(buffer, offset + 2);
+            final int size = buffer.getInt(offset + 4);
+            if (size < 8 || offset + size > manifest.length)
+                throw new IllegalArgumentException(String.format("Invalid chunk at offset %d", offset));
+
+            if (type == RES_STRING_POOL_TYPE)
+            {
+                strings = readStringPool(buffer, offset, headerSize);
+            }
+            else if (type == RES_XML_START_ELEMENT_TYPE)
+            {
+                // the split attribute has no namespace
+                final int elementOffset = offset + headerSize;
+                final int attributeStart = getUnsignedShort(buffer, elementOffset + 8);
+                final int attributeSize = getUnsignedShort(buffer, elementOffset + 10);
+                final int attributeCount = getUnsignedShort(buffer, elementOffset + 12);
+                for (int i = 0; i < attributeCount; ++i)
+                {
+                    final int attributeOffset = elementOffset + attributeStart + i * attributeSize;
+                    if (buffer.getInt(attributeOffset) == NO_ENTRY && "split".equals(getString(strings, buffer.getInt(attributeOffset + 4))))
+                        return true;
+                }
+                return false;
+            }
+            offset += size;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the android attributes of an element, which have a raw string value. These are the attributes
+     * the parser of the aapt dump considers.
+     */
+    private static Map<String, String> readAttributes(final ByteBuffer buffer, final int elementOffset, final String[] strings)
+    {
+        final int attributeStart = getUnsignedShort(buffer, elementOffset + 8);
+        final int attributeSize = getUnsignedShort(buffer, elementOffset + 10);
+        final int attributeCount = getUnsignedShort(buffer, elementOffset + 12);
+
+        final Map<String, String> attributes = Maps.newHashMap();
+        for (int i = 0; i < attributeCount; ++i)
+        {
+            final int attributeOffset = elementOffset + attributeStart + i * attributeSize;
+            final int namespace = buffer.getInt(attributeOffset);
+            final int rawValue = buffer.getInt(attributeOffset + 8);
+            if (rawValue == NO_ENTRY || namespace == NO_ENTRY || !ANDROID_NAMESPACE.equals(getString(strings, namespace)))
+                continue;
+            attributes.put("android:" + getString(strings, buffer.getInt(attributeOffset + 4)), getString(strings, rawValue));
+        }
+        return attributes;
+    }
+
+    private static String[] readStringPool(final ByteBuffer buffer, final int offset, final int headerSize)
+    {
+        final int stringCount = buffer.getInt(offset + 8);
+        final int flags = buffer.getInt(offset + 16);
+        final int stringsStart = buffer.getInt(offset + 20);
+        final boolean utf8 = (flags & UTF8_FLAG) != 0;
+
+        final String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; ++i)
+        {
+            int position = offset + stringsStart + buffer.getInt(offset + headerSize + i * 4);
+            if (utf8)
+            {
+                // the length in characters is followed by the length in bytes, both using one or two bytes
+                position += (buffer.get(position) & 0x80) != 0 ? 2 : 1;
+                int length = buffer.get(position) & 0xFF;
+                if ((length & 0x80) != 0)
+                {
+                    length = ((length & 0x7F) << 8) | (buffer.get(position + 1) & 0xFF);
+                    position++;
+                }
+                position++;
+                strings[i] = new String(buffer.array(), position, length, StandardCharsets.UTF_8);
+            }
+            else
+            {
+                // the length in characters uses one or two 16 bit words
+                int length = getUnsignedShort(buffer, position);
+                if ((length & 0x8000) != 0)
+                {
+                    length = ((length & 0x7FFF) << 16) | getUnsignedShort(buffer, position + 2);
+                    position += 2;
+                }
+                position += 2;
+                strings[i] = new String(buffer.array(), position, length * 2, StandardCharsets.UTF_16LE);
+            }
+        }
+        return strings;
+    }
+
+    private static String getString(final String[] strings, final int index)
+    {
+        return index >= 0 && index < strings.length ? strings[index] : "";
+    }
+
+    private static int getUnsignedShort(final ByteBuffer buffer, final int offset)
+    {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+}
@@ -0,0 +1,134 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import de.fau.fuzzing.smalianalyzer.AnalysisBudget;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.base.reference.BaseTypeReference;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Wraps a dex file for baksmali, so disassembly stops cooperatively once the analysis budget is exceeded. Classes
+ * disassembled after that point appear without fields and methods, which baksmali writes almost instantly. The
+ * CPU time of the disassembly threads of baksmali is accounted whenever they access a class.
+ */
+class BudgetedDexFile implements DexFile
+{
+    private final DexFile dexFile;
+    private final AnalysisBudget budget;
+
+    private class BudgetedClassDef extends BaseTypeReference implements ClassDef
+    {
+        private final ClassDef classDef;
+
+        private BudgetedClassDef(final ClassDef classDef)
+        {
+            this.classDef = classDef;
+        }
+
+        @Override
+        public String getType()
+        {
+            budget.accountHelperThread();
+            return classDef.getType();
+        }
+
+        @Override
+        public int getAccessFlags()
+        {
+            return classDef.getAccessFlags();
+        }
+
+        @Override
+        public String getSuperclass()
+        {
+            return classDef.getSuperclass();
+        }
+
+        @Override
+        public List<String> getInterfaces()
+        {
+            return classDef.getInterfaces();
+        }
+
+        @Override
+        public String getSourceFile()
+        {
+            return classDef.getSourceFile();
+        }
+
+        @Override
+        public Set<? extends Annotation> getAnnotations()
+        {
+            return isExceeded() ? ImmutableSet.of() : classDef.getAnnotations();
+        }
+
+        @Override
+        public Iterable<? extends Field> getStaticFields()
+        {
+            return isExceeded() ? ImmutableList.of() : classDef.getStaticFields();
+        }
+
+        @Override
+        public Iterable<? extends Field> getInstanceFields()
+        {
+            return isExceeded() ? ImmutableList.of() : classDef.getInstanceFields();
+        }
+
+        @Override
+        public Iterable<? extends Field> getFields()
+        {
+            return isExceeded() ? ImmutableList.of() : classDef.getFields();
+        }
+
+        @Override
+        public Iterable<? extends Method> getDirectMethods()
+        {
+            return isExceeded() ? ImmutableList.of() : classDef.getDirectMethods();
+        }
+
+        @Override
+        public Iterable<? extends Method> getVirtualMethods()
+        {
+            return isExceeded() ? ImmutableList.of() : classDef.getVirtualMethods();
+        }
+
+        @Override
+        public Iterable<? extends Method> getMethods()
+        {
+            return isExceeded() ? ImmutableList.of() : classDef.getMethods();
+        }
+
+        private boolean isExceeded()
+        {
+            budget.accountHelperThread();
+            return budget.isExceeded();
+        }
+    }
+
+    BudgetedDexFile(final DexFile dexFile, final AnalysisBudget budget)
+    {
+        this.dexFile = dexFile;
+        this.budget = budget;
+    }
+
+    @Override
+    public Set<? extends ClassDef> getClasses()
+    {
+        return dexFile.getClasses().stream().map(BudgetedClassDef::new).collect(Collectors.toSet());
+    }
+
+    @Override
+    public Opcodes getOpcodes()
+    {
+        return dexFile.getOpcodes();
+    }
+}
@@ -0,0 +1,71 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import de.fau.fuzzing.smalianalyzer.AnalysisBudget;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An APK file or bundle stored on disk. Bundles are extracted next to the smali project, dex files are loaded
+ * by dexlib2 and the manifest is decoded with aapt.
+ */
+public class FileApkSource implements ApkSource
+{
+    private final Path filePath;
+    private final List<Path> manifestFilePaths = Lists.newArrayList();
+
+    public FileApkSource(final Path filePath)
+    {
+        this.filePath = filePath;
+    }
+
+    @Override
+    public String getFileName()
+    {
+        return filePath.getFileName().toString();
+    }
+
+    @Override
+    public Path getParentPath()
+    {
+        return filePath.toAbsolutePath().getParent();
+    }
+
+    @Override
+    public void decode(final Path outputPath, final AnalysisBudget budget) throws IOException
+    {
+        final List<Path> apkFilePaths = ApkBundle.isBundle(filePath)
+                ? ApkBundle.extract(filePath, outputPath.resolve(".bundle"))
+                : Collections.singletonList(filePath);
+        final List<Path> codeFilePaths = ApkDecoder.decode(apkFilePaths, outputPath, budget);
+
+        // components of feature splits are only declared in their own manifest
+        manifestFilePaths.clear();
+        manifestFilePaths.add(apkFilePaths.get(0));
+        for (final Path codeFilePath : codeFilePaths)
+        {
+            if (!manifestFilePaths.contains(codeFilePath))
+                manifestFilePaths.add(codeFilePath);
+        }
+    }
+
+    @Override
+    public Map<String, ApkDecoder.IntentFilters> decodeManifest() throws IOException
+    {
+        final Map<String, ApkDecoder.IntentFilters> intentFilters = Maps.newHashMap();
+        for (final Path manifestFilePath : manifestFilePaths)
+            intentFilters.putAll(ApkDecoder.decodeManifest(manifestFilePath));
+        return intentFilters;
+    }
+
+    @Override
+    public String toString()
+    {
+        return filePath.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import de.fau.fuzzing.smalianalyzer.AnalysisBudget;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.raw.HeaderItem;
+import org.jf.dexlib2.util.DexUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * An APK file or bundle held in memory, e.g. read from an enclosing archive. Dex files and manifests are decoded
+ * directly from the buffer and splits of bundles are never written to disk, so the input is only read once.
+ */
+public class MemoryApkSource implements ApkSource
+{
+    private static final Logger LOG = LogManager.getLogger(MemoryApkSource.class.getName());
+
+    private final String fileName;
+    private final byte[] content;
+    private final List<byte[]> manifests = Lists.newArrayList();
+
+    public MemoryApkSource(final String fileName, final byte[] content)
+    {
+        this.fileName = fileName;
+        this.content = content;
+    }
+
+    public MemoryApkSource(final String fileName, final ByteBuffer buffer)
+    {
+        this(fileName, toByteArray(buffer));
+    }
+
+    @Override
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    @Override
+    public Path getParentPath()
+    {
+        return null;
+    }
+
+    @Override
+    public void decode(final Path outputPath, final AnalysisBudget budget) throws IOException
+    {
+        final List<byte[]> apks = ApkBundle.isBundle(fileName) ? readSplits() : Collections.singletonList(content);
+        if (apks.isEmpty())
+            throw new IllegalArgumentException(String.format("Bundle does not contain any APK files: %s", fileName));
+
+        manifests.clear();
+        final Set<String> decodedSignatures = Sets.newHashSet();
+        for (int i = 0; i < apks.size(); ++i)
+        {
+            LOG.info("Decoding .apk file: {}", i == 0 ? fileName : String.format("%s split %d", fileName, i));
+            final MemoryZipFile zipFile = new MemoryZipFile(apks.get(i));
+            final byte[] manifest = readManifest(zipFile);
+            boolean hasCode = false;
+            // dex files are selected like ZipDexContainer does for APK files on disk, by their header instead of their name
+            for (final MemoryZipFile.Entry entry : zipFile.getEntries())
+            {
+                budget.check();
+                if (!entry.isDirectory() && isDexFile(zipFile, entry))
+                    hasCode |= ApkDecoder.disassemble(new DexBackedDexFile(Opcodes.getDefault(), zipFile.read(entry)), entry.getName(),
+                            outputPath, decodedSignatures, budget);
+            }
+
+            // the manifests of the base APK and all splits containing code are merged
+            if (manifest != null && (i == 0 || hasCode))
+                manifests.add(manifest);
+        }
+    }
+
+    @Override
+    public Map<String, ApkDecoder.IntentFilters> decodeManifest()
+    {
+        LOG.info("Decoding AndroidManifest.xml file");
+        final Map<String, ApkDecoder.IntentFilters> intentFilters = Maps.newHashMap();
+        for (final byte[] manifest : manifests)
+            intentFilters.putAll(BinaryManifestDecoder.decode(manifest));
+        return intentFilters;
+    }
+
+    @Override
+    public String toString()
+    {
+        return fileName;
+    }
+
+    private List<byte[]> readSplits() throws IOException
+    {
+        final MemoryZipFile bundle = new MemoryZipFile(content);
+        final Map<String, MemoryZipFile.Entry> entries = Maps.newLinkedHashMap();
+        for (final MemoryZipFile.Entry entry : bundle.getEntries())
+        {
+            if (!entry.isDirectory() && entry.getName().endsWith(".apk"))
+                entries.putIfAbsent(entry.getName(), entry);
+        }
+
+        final List<byte[]> apks = Lists.newArrayList();
+        final Predicate<String> isSplit = entryName -> ApkBundle.isSplit(entryName,
+                () -> readManifest(new MemoryZipFile(bundle.read(entries.get(entryName)))));
+        for (final String entryName : ApkBundle.selectSplits(Lists.newArrayList(entries.keySet()), isSplit))
+        {
+            LOG.info("Extracted split: {}", entryName);
+            apks.add(bundle.read(entries.get(entryName)));
+        }
+        return apks;
+    }
+
+    private static byte[] readManifest(final MemoryZipFile zipFile) throws IOException
+    {
+        for (final MemoryZipFile.Entry entry : zipFile.getEntries())
+        {
+            if (entry.getName().equals(ApkBundle.MANIFEST_ENTRY))
+                return zipFile.read(entry);
+        }
+        return null;
+    }
+
+    private static boolean isDexFile(final MemoryZipFile zipFile, final MemoryZipFile.Entry entry) throws IOException
+    {
+        try
+        {
+            DexUtil.verifyDexHeader(new ByteArrayInputStream(zipFile.read(entry, HeaderItem.ITEM_SIZE)));
+            return true;
+        }
+        catch (DexBackedDexFile.NotADexFile | DexUtil.InvalidFile | DexUtil.UnsupportedFile e)
+        {
+            return false;
+        }
+    }
+
+    private static byte[] toByteArray(final ByteBuffer buffer)
+    {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length)
+            return buffer.array();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,191 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import com.google.common.collect.Lists;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a zip file held in memory through its central directory, like {@link java.util.zip.ZipFile} does for files.
+ * Unlike {@link java.util.zip.ZipInputStream} it does not depend on the local headers, which may be inconsistent
+ * with the central directory in hardened APK files, and supports stored entries followed by a data descriptor.
+ */
+class MemoryZipFile
+{
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    static class Entry
+    {
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private Entry(final String name, final int method, final long compressedSize, final long size, final long localHeaderOffset)
+        {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        boolean isDirectory()
+        {
+            return name.endsWith("/");
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final List<Entry> entries;
+
+    MemoryZipFile(final byte[] content) throws ZipException
+    {
+        this.buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = readCentralDirectory();
+    }
+
+    /**
+     * @return the entries in the order of the central directory
+     */
+    List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    byte[] read(final Entry entry) throws ZipException
+    {
+        return read(entry, entry.size);
+    }
+
+    /**
+     * Reads at most the given number of bytes from the start of the entry, without inflating the rest of it.
+     */
+    byte[] read(final Entry entry, final long maxSize) throws ZipException
+    {
+        final int length = (int) Math.min(entry.size, maxSize);
+        final int dataOffset = getDataOffset(entry);
+        if (entry.method == METHOD_STORED)
+        {
+            final byte[] bytes = new byte[length];
+            System.arraycopy(buffer.array(), dataOffset, bytes, 0, length);
+            return bytes;
+        }
+        if (entry.method != METHOD_DEFLATED)
+            throw new ZipException(String.format("Unsupported compression method %d of entry: %s", entry.method, entry.name));
+
+        final Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(buffer.array(), dataOffset, (int) entry.compressedSize);
+            final byte[] bytes = new byte[length];
+            int inflated = 0;
+            while (inflated < length)
+            {
+                final int count = inflater.inflate(bytes, inflated, length - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new ZipException(String.format("Truncated entry: %s", entry.name));
+                inflated += count;
+            }
+            return bytes;
+        }
+        catch (DataFormatException e)
+        {
+            throw new ZipException(String.format("Invalid compressed data of entry %s: %s", entry.name, e.getMessage()));
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws ZipException
+    {
+        final int endOffset = findEndOfCentralDirectory();
+        final int entryCount = getUnsignedShort(endOffset + 10);
+        final long directoryOffset = getUnsignedInt(endOffset + 16);
+        if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL)
+            throw new ZipException("ZIP64 archives are not supported");
+
+        final List<Entry> result = Lists.newArrayListWithCapacity(entryCount);
+        int offset = checkOffset(directoryOffset, CENTRAL_DIRECTORY_HEADER_SIZE);
+        for (int i = 0; i < entryCount; ++i)
+        {
+            if (buffer.getInt(offset) != CENTRAL_DIRECTORY_SIGNATURE)
+                throw new ZipException(String.format("Invalid central directory entry at offset %d", offset));
+            final int method = getUnsignedShort(offset + 10);
+            final long compressedSize = getUnsignedInt(offset + 20);
+            final long size = getUnsignedInt(offset + 24);
+            final int nameLength = getUnsignedShort(offset + 28);
+            final int extraLength = getUnsignedShort(offset + 30);
+            final int commentLength = getUnsignedShort(offset + 32);
+            final long localHeaderOffset = getUnsignedInt(offset + 42);
+            checkOffset(offset, CENTRAL_DIRECTORY_HEADER_SIZE + nameLength);
+            final String name = new String(buffer.array(), offset + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+            result.add(new Entry(name, method, compressedSize, size, localHeaderOffset));
+            offset = checkOffset(offset + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength, 0);
+        }
+        return result;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException
+    {
+        // the record is followed by a comment of at most 64 KB
+        final int limit = Math.max(0, buffer.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+        for (int offset = buffer.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE; offset >= limit; --offset)
+        {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+                return offset;
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /**
+     * Only the lengths of the name and extra fields are taken from the local header, sizes always come from the
+     * central directory.
+     */
+    private int getDataOffset(final Entry entry) throws ZipException
+    {
+        final int offset = checkOffset(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (buffer.getInt(offset) != LOCAL_HEADER_SIGNATURE)
+            throw new ZipException(String.format("Invalid local header of entry: %s", entry.name));
+        final int dataOffset = offset + LOCAL_HEADER_SIZE + getUnsignedShort(offset + 26) + getUnsignedShort(offset + 28);
+        return checkOffset(dataOffset, entry.method == METHOD_STORED ? entry.size : entry.compressedSize);
+    }
+
+    private int checkOffset(final long offset, final long length) throws ZipException
+    {
+        if (offset < 0 || length < 0 || offset + length > buffer.capacity())
+            throw new ZipException(String.format("Offset %d is out of bounds", offset));
+        return (int) offset;
+    }
+
+    private int getUnsignedShort(final int offset)
+    {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private long getUnsignedInt(final int offset)
+    {
+        return buffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+}
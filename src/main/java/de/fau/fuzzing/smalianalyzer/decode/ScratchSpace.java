@@ -0,0 +1,109 @@
+package de.fau.fuzzing.smalianalyzer.decode;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out unique working directories for decoded APK files below a scratch root (e.g. /dev/shm) and deletes
+ * released directories on a background thread, so cleanup is not on the critical path of the analysis.
+ */
+public class ScratchSpace
+{
+    private static final Logger LOG = LogManager.getLogger(ScratchSpace.class.getName());
+
+    private final Path scratchRootPath;
+    private final long minFreeBytes;
+    private final ExecutorService deleter = Executors.newSingleThreadExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "scratch-deleter");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private int pendingDeletions = 0;
+
+    /**
+     * @param scratchRootPath the directory to create working directories in, or null to create them next to the APK files
+     *                        and in the temporary directory for APK files held in memory
+     * @param minFreeBytes    the usable space the scratch file store should have before a new job is started
+     */
+    public ScratchSpace(final Path scratchRootPath, final long minFreeBytes)
+    {
+        this.scratchRootPath = scratchRootPath;
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    public Path createJobDirectory(final ApkSource source) throws IOException
+    {
+        final Path rootPath = getRootPath(source);
+        Files.createDirectories(rootPath);
+        final String fileName = source.getFileName();
+        final String prefix = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+        return Files.createTempDirectory(rootPath, prefix + "-");
+    }
+
+    public synchronized void release(final Path jobPath)
+    {
+        pendingDeletions++;
+        deleter.execute(() ->
+        {
+            try
+            {
+                ApkDecoder.deleteTemporaryFiles(jobPath);
+            }
+            finally
+            {
+                synchronized (ScratchSpace.this)
+                {
+                    pendingDeletions--;
+                    ScratchSpace.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocks while the scratch file store is low on space and pending deletions could still free some of it.
+     */
+    public synchronized void awaitFreeSpace(final ApkSource source) throws IOException, InterruptedException
+    {
+        final Path rootPath = getRootPath(source);
+        Files.createDirectories(rootPath);
+        long usableSpace;
+        while ((usableSpace = Files.getFileStore(rootPath).getUsableSpace()) < minFreeBytes && pendingDeletions > 0)
+        {
+            LOG.info("Waiting for {} pending deletions, {} bytes of scratch space left", pendingDeletions, usableSpace);
+            wait(TimeUnit.SECONDS.toMillis(1));
+        }
+
+        if (usableSpace < minFreeBytes)
+            LOG.warn("Scratch space {} is low: {} bytes left", rootPath.toString(), usableSpace);
+    }
+
+    private Path getRootPath(final ApkSource source)
+    {
+        if (scratchRootPath != null)
+            return scratchRootPath;
+        return source.getParentPath() != null ? source.getParentPath() : Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    public void shutdown()
+    {
+        deleter.shutdown();
+        try
+        {
+            deleter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
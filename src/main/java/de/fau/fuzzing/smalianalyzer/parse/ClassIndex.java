@@ -0,0 +1,26 @@
+package de.fau.fuzzing.smalianalyzer.parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/**
+ * Maps smali class descriptors to the {@link IndexEntry} of the file declaring them.
+ */
+public interface ClassIndex extends Closeable
+{
+    void put(String className, IndexEntry entry) throws IOException;
+
+    IndexEntry get(String className);
+
+    int size();
+
+    void clear() throws IOException;
+
+    void forEach(BiConsumer<String, IndexEntry> action);
+
+    @Override
+    default void close() throws IOException
+    {
+    }
+}
@@ -0,0 +1,323 @@
+package de.fau.fuzzing.smalianalyzer.parse;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Appends index entries to a file on disk and only keeps a bounded cache of recently used entries in memory.
+ * The file offsets of the entries are kept in an open addressing hash table in a second file, each slot holds
+ * the 64 bit hash of the class descriptor and the offset of its latest entry. The descriptor itself is only
+ * read back from the index file to resolve hash collisions, so the heap usage does not grow with the classes.
+ * Lookups of classes not in the index, mostly framework classes, are cached as well.
+ */
+public class DiskClassIndex implements ClassIndex
+{
+    private static final int INITIAL_SLOT_COUNT = 1024;
+    private static final int SLOT_SIZE = 2 * Long.BYTES;
+
+    private final Path indexFilePath;
+    private final Path slotFilePath;
+    private final Cache<String, IndexEntry> entryCache;
+    private final Cache<String, Boolean> missCache;
+
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+    private final ByteBuffer slotBuffer = ByteBuffer.allocate(SLOT_SIZE);
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+    private DataOutputStream outputStream = null;
+    private FileChannel inputChannel = null;
+    private long writeOffset = 0;
+    private FileChannel slotChannel = null;
+    private long slotCount = 0;
+    // offset of the entry in the slot last returned by findSlot, -1 if the slot is empty
+    private long foundOffset = -1;
+    private volatile int classCount = 0;
+
+    public DiskClassIndex(final Path indexFilePath, final long cacheSize)
+    {
+        this.indexFilePath = indexFilePath;
+        this.slotFilePath = indexFilePath.resolveSibling(indexFilePath.getFileName().toString() + ".slots");
+        this.entryCache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        this.missCache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    @Override
+    public synchronized void put(String className, IndexEntry entry) throws IOException
+    {
+        if (outputStream == null)
+        {
+            Files.createDirectories(indexFilePath.toAbsolutePath().getParent());
+            outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFilePath,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)));
+            writeOffset = 0;
+            createSlotFile(INITIAL_SLOT_COUNT);
+        }
+
+        // records are prefixed with their length, so the index file can be scanned sequentially
+        recordBuffer.reset();
+        final DataOutputStream recordStream = new DataOutputStream(recordBuffer);
+        recordStream.writeUTF(className);
+        writeEntry(recordStream, entry);
+        outputStream.writeInt(recordBuffer.size());
+        recordBuffer.writeTo(outputStream);
+
+        // classes indexed more than once are superseded by their latest entry
+        final long hash = hash(className);
+        final long slot = findSlot(className, hash, writeOffset);
+        if (foundOffset < 0)
+            classCount++;
+        writeSlot(slot, hash, writeOffset);
+        writeOffset += Integer.BYTES + recordBuffer.size();
+        entryCache.invalidate(className);
+        missCache.invalidate(className);
+
+        if (classCount * 2L > slotCount)
+            growSlotFile();
+    }
+
+    @Override
+    public IndexEntry get(String className)
+    {
+        // cached lookups do not need the lock, entries are only put while indexing
+        if (classCount == 0 || missCache.getIfPresent(className) != null)
+            return null;
+        final IndexEntry entry = entryCache.getIfPresent(className);
+        return entry != null ? entry : readEntry(className);
+    }
+
+    private synchronized IndexEntry readEntry(final String className)
+    {
+        try
+        {
+            findSlot(className, hash(className), -1);
+            if (foundOffset < 0)
+            {
+                missCache.put(className, Boolean.TRUE);
+                return null;
+            }
+            final DataInputStream recordStream = readRecord(foundOffset);
+            recordStream.readUTF();
+            final IndexEntry entry = readEntry(recordStream);
+            entryCache.put(className, entry);
+            return entry;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(String.format("Failed reading index entry: %s", className), e);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return classCount;
+    }
+
+    @Override
+    public synchronized void clear() throws IOException
+    {
+        close();
+        classCount = 0;
+        entryCache.invalidateAll();
+        missCache.invalidateAll();
+        Files.deleteIfExists(indexFilePath);
+        Files.deleteIfExists(slotFilePath);
+    }
+
+    @Override
+    public synchronized void forEach(BiConsumer<String, IndexEntry> action)
+    {
+        if (classCount == 0)
+            return;
+
+        try
+        {
+            flush();
+            try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFilePath))))
+            {
+                for (long offset = 0; offset < writeOffset; )
+                {
+                    final int length = inputStream.readInt();
+                    final String className = inputStream.readUTF();
+                    final IndexEntry entry = readEntry(inputStream);
+                    // entries of classes indexed more than once are superseded by the latest one
+                    findSlot(className, hash(className), offset);
+                    if (foundOffset == offset)
+                        action.accept(className, entry);
+                    offset += Integer.BYTES + length;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed reading index file", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (outputStream != null)
+        {
+            outputStream.close();
+            outputStream = null;
+        }
+        if (inputChannel != null)
+        {
+            inputChannel.close();
+            inputChannel = null;
+        }
+        if (slotChannel != null)
+        {
+            slotChannel.close();
+            slotChannel = null;
+        }
+    }
+
+    /**
+     * Returns the slot of the class, or the empty slot it would be inserted into, and sets the offset found in it.
+     * The descriptor of an entry with the same hash is only compared if the entry is not stored at the known offset
+     * of the class.
+     */
+    private long findSlot(final String className, final long hash, final long knownOffset) throws IOException
+    {
+        // the slot file is reopened if entries are requested after the index was closed
+        if (slotChannel == null)
+            slotChannel = FileChannel.open(slotFilePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        final long mask = slotCount - 1;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask)
+        {
+            slotBuffer.clear();
+            readFully(slotChannel, slotBuffer, slot * SLOT_SIZE);
+            final long slotHash = slotBuffer.getLong(0);
+            foundOffset = slotBuffer.getLong(Long.BYTES) - 1;
+            if (foundOffset < 0)
+                return slot;
+            if (slotHash == hash && (foundOffset == knownOffset || className.equals(readClassName(foundOffset))))
+                return slot;
+        }
+    }
+
+    private void writeSlot(final long slot, final long hash, final long offset) throws IOException
+    {
+        // offsets are stored incremented by one, zero marks an empty slot
+        slotBuffer.clear();
+        slotBuffer.putLong(hash).putLong(offset + 1).flip();
+        for (long position = slot * SLOT_SIZE; slotBuffer.hasRemaining(); )
+            position += slotChannel.write(slotBuffer, position);
+    }
+
+    private void createSlotFile(final long count) throws IOException
+    {
+        if (slotChannel != null)
+            slotChannel.close();
+        Files.deleteIfExists(slotFilePath);
+        slotChannel = FileChannel.open(slotFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        slotCount = count;
+
+        final ByteBuffer emptySlots = ByteBuffer.allocate(INITIAL_SLOT_COUNT * SLOT_SIZE);
+        for (long written = 0; written < count * SLOT_SIZE; written += emptySlots.capacity())
+        {
+            emptySlots.clear();
+            while (emptySlots.hasRemaining())
+                slotChannel.write(emptySlots);
+        }
+    }
+
+    /**
+     * Doubles the slot count and inserts the entries of the index file again, later entries supersede earlier ones.
+     */
+    private void growSlotFile() throws IOException
+    {
+        createSlotFile(slotCount * 2);
+        flush();
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFilePath))))
+        {
+            for (long offset = 0; offset < writeOffset; )
+            {
+                final int length = inputStream.readInt();
+                final String className = inputStream.readUTF();
+                readEntry(inputStream);
+                final long hash = hash(className);
+                writeSlot(findSlot(className, hash, offset), hash, offset);
+                offset += Integer.BYTES + length;
+            }
+        }
+    }
+
+    private String readClassName(final long offset) throws IOException
+    {
+        return readRecord(offset).readUTF();
+    }
+
+    /**
+     * Reads the length prefixed record at the offset with two reads.
+     */
+    private DataInputStream readRecord(final long offset) throws IOException
+    {
+        flush();
+        if (inputChannel == null)
+            inputChannel = FileChannel.open(indexFilePath, StandardOpenOption.READ);
+
+        lengthBuffer.clear();
+        readFully(inputChannel, lengthBuffer, offset);
+        final byte[] record = new byte[lengthBuffer.getInt(0)];
+        readFully(inputChannel, ByteBuffer.wrap(record), offset + Integer.BYTES);
+        return new DataInputStream(new ByteArrayInputStream(record));
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            final int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException(String.format("Unexpected end of index file at offset %d", position));
+            position += read;
+        }
+    }
+
+    private static long hash(final String className)
+    {
+        return Hashing.murmur3_128().hashString(className, StandardCharsets.UTF_8).asLong();
+    }
+
+    private void flush() throws IOException
+    {
+        if (outputStream != null)
+            outputStream.flush();
+    }
+
+    private static void writeEntry(final DataOutput output, final IndexEntry entry) throws IOException
+    {
+        output.writeUTF(entry.getFilePath().toString());
+        output.writeUTF(entry.getSuperClass());
+        output.writeInt(entry.getImplementedClasses().size());
+        for (final String implementedClass : entry.getImplementedClasses())
+            output.writeUTF(implementedClass);
+    }
+
+    private static IndexEntry readEntry(final DataInput input) throws IOException
+    {
+        final Path filePath = Paths.get(input.readUTF());
+        final String superClass = input.readUTF();
+        final int count = input.readInt();
+        final List<String> implementedClasses = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; ++i)
+            implementedClasses.add(input.readUTF());
+        return new IndexEntry(filePath, superClass, implementedClasses);
+    }
+}
@@ -0,0 +1,44 @@
+package de.fau.fuzzing.smalianalyzer.parse;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps all index entries in a heap allocated hash map.
+ */
+public class HeapClassIndex implements ClassIndex
+{
+    private final Map<String, IndexEntry> indexMap = Maps.newHashMap();
+
+    @Override
+    public void put(String className, IndexEntry entry)
+    {
+        indexMap.put(className, entry);
+    }
+
+    @Override
+    public IndexEntry get(String className)
+    {
+        return indexMap.get(className);
+    }
+
+    @Override
+    public int size()
+    {
+        return indexMap.size();
+    }
+
+    @Override
+    public void clear()
+    {
+        indexMap.clear();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, IndexEntry> action)
+    {
+        indexMap.forEach(action);
+    }
+}
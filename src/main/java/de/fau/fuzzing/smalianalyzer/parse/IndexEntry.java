@@ -17,6 +17,13 @@ public class IndexEntry
         this.implementedClasses = header.getImplementedClasses();
     }
 
+    public IndexEntry(Path filePath, String superClass, List<String> implementedClasses)
+    {
+        this.filePath = filePath;
+        this.superClass = superClass;
+        this.implementedClasses = implementedClasses;
+    }
+
     public Path getFilePath()
     {
         return filePath;
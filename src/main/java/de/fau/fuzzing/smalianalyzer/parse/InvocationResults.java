@@ -0,0 +1,57 @@
+package de.fau.fuzzing.smalianalyzer.parse;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Collects the tracked invocations found while parsing the entry methods of a component.
+ */
+public class InvocationResults
+{
+    // getter name -> keys of the extras read from the intent
+    private final SetMultimap<String, String> intentResults = HashMultimap.create();
+    // getter name -> keys of the values read from bundles
+    private final SetMultimap<String, String> bundleResults = HashMultimap.create();
+    // extra key -> default values passed to typed getters
+    private final SetMultimap<String, String> defaultValues = HashMultimap.create();
+    // tracked value, e.g. getAction or getData.getHost -> constants it is compared against
+    private final SetMultimap<String, String> comparedValues = HashMultimap.create();
+
+    public void putInvocation(final SinkModel.Target target, final String name, final String key)
+    {
+        if (target == SinkModel.Target.INTENT)
+            intentResults.put(name, key);
+        else
+            bundleResults.put(name, key);
+    }
+
+    public SetMultimap<String, String> getIntentResults()
+    {
+        return intentResults;
+    }
+
+    public SetMultimap<String, String> getBundleResults()
+    {
+        return bundleResults;
+    }
+
+    public SetMultimap<String, String> getDefaultValues()
+    {
+        return defaultValues;
+    }
+
+    public SetMultimap<String, String> getComparedValues()
+    {
+        return comparedValues;
+    }
+
+    public boolean isEmpty()
+    {
+        return intentResults.isEmpty() && bundleResults.isEmpty() && defaultValues.isEmpty() && comparedValues.isEmpty();
+    }
+
+    public int getInvocationCount()
+    {
+        return intentResults.size() + bundleResults.size();
+    }
+}
@@ -0,0 +1,303 @@
+package de.fau.fuzzing.smalianalyzer.parse;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Stores the index in flat direct buffers outside of the java heap. All descriptors and file paths are interned
+ * into a string pool and referenced by their id, lookups go through an open addressing hash table over the
+ * interned strings. Each indexed class only costs a fixed size record of string ids plus its interface ids,
+ * {@link IndexEntry} objects are created on demand when an entry is requested and the most recently requested
+ * ones are cached. Lookups compare the requested descriptor with the pool without encoding it first.
+ */
+public class OffHeapClassIndex implements ClassIndex
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NONE = -1;
+    private static final int ENTRY_CACHE_SIZE = 1024;
+
+    // layout of a class record
+    private static final int RECORD_SIZE = 5;
+    private static final int RECORD_NAME = 0;
+    private static final int RECORD_SUPER = 1;
+    private static final int RECORD_PATH = 2;
+    private static final int RECORD_INTERFACE_START = 3;
+    private static final int RECORD_INTERFACE_COUNT = 4;
+
+    /**
+     * A growable int array backed by a direct buffer.
+     */
+    private static class DirectIntArray
+    {
+        private ByteBuffer buffer;
+        private int size = 0;
+
+        private DirectIntArray(final int capacity)
+        {
+            this.buffer = ByteBuffer.allocateDirect(capacity * Integer.BYTES);
+        }
+
+        private int get(final int index)
+        {
+            return buffer.getInt(index * Integer.BYTES);
+        }
+
+        private void set(final int index, final int value)
+        {
+            buffer.putInt(index * Integer.BYTES, value);
+        }
+
+        private int add(final int value)
+        {
+            if ((size + 1) * Integer.BYTES > buffer.capacity())
+                buffer = grow(buffer, size * Integer.BYTES, (size + 1) * Integer.BYTES);
+            set(size, value);
+            return size++;
+        }
+
+        private void fill(final int value)
+        {
+            for (int i = 0; i < buffer.capacity() / Integer.BYTES; ++i)
+                set(i, value);
+        }
+    }
+
+    // interned strings
+    private ByteBuffer stringPool;
+    private int stringPoolSize;
+    private DirectIntArray stringOffsets;
+    private DirectIntArray stringHashes;
+    private DirectIntArray stringRecords;
+    private DirectIntArray hashTable;
+
+    // class records
+    private DirectIntArray records;
+    private DirectIntArray interfaces;
+    private int classCount;
+
+    private final Cache<String, IndexEntry> entryCache = CacheBuilder.newBuilder().maximumSize(ENTRY_CACHE_SIZE).build();
+
+    public OffHeapClassIndex()
+    {
+        clear();
+    }
+
+    @Override
+    public void put(String className, IndexEntry entry)
+    {
+        final int nameId = intern(className);
+        final int superId = intern(entry.getSuperClass());
+        final int pathId = intern(entry.getFilePath().toString());
+        final List<String> implementedClasses = entry.getImplementedClasses();
+
+        final int interfaceStart = interfaces.size;
+        for (final String implementedClass : implementedClasses)
+            interfaces.add(intern(implementedClass));
+
+        final int record = records.add(nameId) / RECORD_SIZE;
+        records.add(superId);
+        records.add(pathId);
+        records.add(interfaceStart);
+        records.add(implementedClasses.size());
+
+        // classes indexed more than once are superseded by their latest record
+        if (stringRecords.get(nameId) == NONE)
+            classCount++;
+        stringRecords.set(nameId, record);
+        entryCache.invalidate(className);
+    }
+
+    @Override
+    public IndexEntry get(String className)
+    {
+        IndexEntry entry = entryCache.getIfPresent(className);
+        if (entry != null)
+            return entry;
+
+        final int nameId = lookup(className, false);
+        if (nameId == NONE || stringRecords.get(nameId) == NONE)
+            return null;
+        entry = readEntry(stringRecords.get(nameId));
+        entryCache.put(className, entry);
+        return entry;
+    }
+
+    @Override
+    public int size()
+    {
+        return classCount;
+    }
+
+    @Override
+    public void clear()
+    {
+        stringPool = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 32);
+        stringPoolSize = 0;
+        stringOffsets = new DirectIntArray(INITIAL_CAPACITY);
+        stringHashes = new DirectIntArray(INITIAL_CAPACITY);
+        stringRecords = new DirectIntArray(INITIAL_CAPACITY);
+        hashTable = new DirectIntArray(INITIAL_CAPACITY * 2);
+        records = new DirectIntArray(INITIAL_CAPACITY * RECORD_SIZE);
+        interfaces = new DirectIntArray(INITIAL_CAPACITY);
+        classCount = 0;
+        entryCache.invalidateAll();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, IndexEntry> action)
+    {
+        for (int record = 0; record < records.size / RECORD_SIZE; ++record)
+        {
+            final int nameId = getRecordField(record, RECORD_NAME);
+            if (stringRecords.get(nameId) == record)
+                action.accept(readString(nameId), readEntry(record));
+        }
+    }
+
+    private IndexEntry readEntry(final int record)
+    {
+        final int interfaceStart = getRecordField(record, RECORD_INTERFACE_START);
+        final int interfaceCount = getRecordField(record, RECORD_INTERFACE_COUNT);
+        final List<String> implementedClasses = Lists.newArrayListWithCapacity(interfaceCount);
+        for (int i = interfaceStart; i < interfaceStart + interfaceCount; ++i)
+            implementedClasses.add(readString(interfaces.get(i)));
+
+        return new IndexEntry(Paths.get(readString(getRecordField(record, RECORD_PATH))),
+                readString(getRecordField(record, RECORD_SUPER)), implementedClasses);
+    }
+
+    private int getRecordField(final int record, final int field)
+    {
+        return records.get(record * RECORD_SIZE + field);
+    }
+
+    private int intern(final String str)
+    {
+        return lookup(str, true);
+    }
+
+    /**
+     * Returns the id of the interned string, or NONE if it is not interned and insert is false.
+     */
+    private int lookup(final String str, final boolean insert)
+    {
+        final int hash = spread(str.hashCode());
+        final int mask = hashTable.buffer.capacity() / Integer.BYTES - 1;
+
+        int slot = hash & mask;
+        int value;
+        while ((value = hashTable.get(slot)) != 0)
+        {
+            final int id = value - 1;
+            if (stringHashes.get(id) == hash && poolEquals(id, str))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+
+        if (!insert)
+            return NONE;
+
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        if (stringPoolSize + Integer.BYTES + bytes.length > stringPool.capacity())
+            stringPool = grow(stringPool, stringPoolSize, stringPoolSize + Integer.BYTES + bytes.length);
+        stringPool.position(stringPoolSize);
+        stringPool.putInt(bytes.length);
+        stringPool.put(bytes);
+
+        final int id = stringOffsets.add(stringPoolSize);
+        stringPoolSize = stringPool.position();
+        stringHashes.add(hash);
+        stringRecords.add(NONE);
+        hashTable.set(slot, id + 1);
+
+        // keep the load factor of the hash table below one half
+        if (stringOffsets.size * 2 > mask + 1)
+            rehash((mask + 1) * 2);
+        return id;
+    }
+
+    private void rehash(final int capacity)
+    {
+        hashTable = new DirectIntArray(capacity);
+        hashTable.fill(0);
+        final int mask = capacity - 1;
+        for (int id = 0; id < stringOffsets.size; ++id)
+        {
+            int slot = stringHashes.get(id) & mask;
+            while (hashTable.get(slot) != 0)
+                slot = (slot + 1) & mask;
+            hashTable.set(slot, id + 1);
+        }
+    }
+
+    /**
+     * Compares the interned string with the UTF-8 encoding of the given string, encoding it character by character.
+     * Unpaired surrogates are encoded as '?', like {@link String#getBytes(java.nio.charset.Charset)} does.
+     */
+    private boolean poolEquals(final int id, final String str)
+    {
+        final int offset = stringOffsets.get(id) + Integer.BYTES;
+        final int length = stringPool.getInt(offset - Integer.BYTES);
+        int position = 0;
+        for (int i = 0; i < str.length(); ++i)
+        {
+            int codePoint = str.codePointAt(i);
+            if (Character.isSupplementaryCodePoint(codePoint))
+                i++;
+            else if (Character.isSurrogate((char) codePoint))
+                codePoint = '?';
+
+            if (codePoint < 0x80)
+            {
+                if (position >= length || stringPool.get(offset + position++) != (byte) codePoint)
+                    return false;
+                continue;
+            }
+
+            final int byteCount = codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (position + byteCount > length)
+                return false;
+            // the leading byte holds the byte count and the highest bits, each continuation byte six more bits
+            if (stringPool.get(offset + position++) != (byte) ((0xF00 >> byteCount) | (codePoint >> (6 * (byteCount - 1)))))
+                return false;
+            for (int shift = 6 * (byteCount - 2); shift >= 0; shift -= 6)
+            {
+                if (stringPool.get(offset + position++) != (byte) (0x80 | ((codePoint >> shift) & 0x3F)))
+                    return false;
+            }
+        }
+        return position == length;
+    }
+
+    private String readString(final int id)
+    {
+        final int offset = stringOffsets.get(id);
+        final byte[] bytes = new byte[stringPool.getInt(offset)];
+        final ByteBuffer view = stringPool.duplicate();
+        view.position(offset + Integer.BYTES);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int spread(final int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static ByteBuffer grow(final ByteBuffer buffer, final int size, final int required)
+    {
+        final ByteBuffer result = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, required));
+        final ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.limit(size);
+        result.put(view);
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package de.fau.fuzzing.smalianalyzer.parse;
+
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Delegates to another index and records the names of all classes looked up, regardless of whether they
+ * are contained in the index or not.
+ */
+public class RecordingClassIndex implements ClassIndex
+{
+    private final ClassIndex index;
+    private final Set<String> recordedClasses = Sets.newHashSet();
+
+    public RecordingClassIndex(final ClassIndex index)
+    {
+        this.index = index;
+    }
+
+    public Set<String> getRecordedClasses()
+    {
+        return recordedClasses;
+    }
+
+    @Override
+    public void put(String className, IndexEntry entry) throws IOException
+    {
+        index.put(className, entry);
+    }
+
+    @Override
+    public IndexEntry get(String className)
+    {
+        recordedClasses.add(className);
+        return index.get(className);
+    }
+
+    @Override
+    public int size()
+    {
+        return index.size();
+    }
+
+    @Override
+    public void clear() throws IOException
+    {
+        index.clear();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, IndexEntry> action)
+    {
+        index.forEach(action);
+    }
+}
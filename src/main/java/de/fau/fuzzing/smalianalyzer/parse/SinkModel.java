@@ -0,0 +1,200 @@
+package de.fau.fuzzing.smalianalyzer.parse;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import de.fau.fuzzing.smalianalyzer.ApplicationProperties;
+import de.fau.fuzzing.smalianalyzer.Constants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * The table of method invocations tracked by the {@link SmaliFileParser}, keyed by their full method reference as it
+ * appears in smali code, so each invocation is matched with a single hash lookup. The default table is read from
+ * the bundled sinks.txt resource, additional sinks can be configured through the constants.sinks.path property.
+ */
+public class SinkModel
+{
+    private static final Logger LOG = LogManager.getLogger();
+
+    public enum Target
+    {
+        INTENT, BUNDLE
+    }
+
+    public enum Kind
+    {
+        KEYED, KEYED_DEFAULT, EXTRAS, VALUE, DERIVED, COMPARISON
+    }
+
+    public static class Sink
+    {
+        private final Target target;
+        private final Kind kind;
+        private final String name;
+        private final char defaultType;
+        private final boolean returningBundle;
+
+        private Sink(final Target target, final Kind kind, final String methodReference)
+        {
+            this.target = target;
+            this.kind = kind;
+            this.name = methodReference.substring(methodReference.indexOf("->") + 2, methodReference.indexOf('('));
+            this.returningBundle = methodReference.endsWith(")" + Constants.BUNDLE_CLASS);
+
+            // the type of the default value is the second parameter, following the key of type Ljava/lang/String;
+            final String parameters = methodReference.substring(methodReference.indexOf('(') + 1, methodReference.indexOf(')'));
+            this.defaultType = kind == Kind.KEYED_DEFAULT ? parameters.charAt(parameters.indexOf(';') + 1) : 0;
+        }
+
+        public Target getTarget()
+        {
+            return target;
+        }
+
+        public Kind getKind()
+        {
+            return kind;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public char getDefaultType()
+        {
+            return defaultType;
+        }
+
+        /**
+         * Returns true if the result is a bundle of extras, whose keyed getters are tracked.
+         */
+        public boolean isReturningBundle()
+        {
+            return returningBundle;
+        }
+    }
+
+    // the table is only loaded on first use
+    private static class TableHolder
+    {
+        private static final Map<String, Sink> SINKS = loadSinks();
+    }
+
+    public static Sink getSink(final String methodReference)
+    {
+        return TableHolder.SINKS.get(methodReference);
+    }
+
+    /**
+     * Hashes the loaded table including the configured additional sinks, e.g. to detect results of a different table.
+     */
+    public static String hashTable()
+    {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (final Map.Entry<String, Sink> entry : TableHolder.SINKS.entrySet())
+        {
+            hasher.putString(String.valueOf(entry.getValue().getTarget()), StandardCharsets.UTF_8).putChar(' ')
+                    .putString(entry.getValue().getKind().name(), StandardCharsets.UTF_8).putChar(' ')
+                    .putString(entry.getKey(), StandardCharsets.UTF_8).putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Formats the literal of a const instruction as a value of the given smali type, e.g. 0x1 of type Z as true.
+     */
+    public static String formatLiteral(final char type, final String literal)
+    {
+        try
+        {
+            String value = literal;
+            if (value.endsWith("L") || value.endsWith("t") || value.endsWith("s"))
+                value = value.substring(0, value.length() - 1);
+            final long bits = Long.decode(value);
+            switch (type)
+            {
+                case 'Z':
+                    return Boolean.toString(bits != 0);
+                case 'C':
+                    return String.valueOf((char) bits);
+                case 'F':
+                    return Float.toString(Float.intBitsToFloat((int) bits));
+                case 'D':
+                    return Double.toString(Double.longBitsToDouble(bits));
+                default:
+                    return Long.toString(bits);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return literal;
+        }
+    }
+
+    private static Map<String, Sink> loadSinks()
+    {
+        final Map<String, Sink> sinks = Maps.newLinkedHashMap();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                SinkModel.class.getResourceAsStream("/sinks.txt"), StandardCharsets.UTF_8)))
+        {
+            readSinks(reader, sinks);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed reading bundled sink table", e);
+        }
+
+        final String sinksPath = ApplicationProperties.getInstance().getSinksPath();
+        if (sinksPath != null && !sinksPath.isEmpty())
+        {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(sinksPath), StandardCharsets.UTF_8))
+            {
+                readSinks(reader, sinks);
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Failed reading additional sinks:", e);
+            }
+        }
+
+        LOG.info("Loaded {} sinks", sinks.size());
+        return ImmutableMap.copyOf(sinks);
+    }
+
+    private static void readSinks(final BufferedReader reader, final Map<String, Sink> sinks) throws IOException
+    {
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            final String[] columns = line.split("\\s+");
+            if (columns.length != 3)
+                throw new IllegalStateException(String.format("Invalid sink definition: %s", line));
+
+            final Target target = columns[0].equals("-") ? null : Target.valueOf(columns[0]);
+            final Kind kind = Kind.valueOf(columns[1]);
+            if (target == null && (kind == Kind.KEYED || kind == Kind.KEYED_DEFAULT))
+                throw new IllegalStateException(String.format("Keyed sink without target: %s", line));
+
+            final Sink sink = new Sink(target, kind, columns[2]);
+            if (kind == Kind.EXTRAS && !sink.isReturningBundle())
+                throw new IllegalStateException(String.format("Extras sink not returning a bundle: %s", line));
+            sinks.put(columns[2], sink);
+        }
+    }
+}
@@ -1,9 +1,9 @@
 package de.fau.fuzzing.smalianalyzer.parse;
 
 import com.google.common.collect.Maps;
-import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import de.fau.fuzzing.smalianalyzer.AnalysisBudget;
 import de.fau.fuzzing.smalianalyzer.ApplicationProperties;
-import de.fau.fuzzing.smalianalyzer.Constants;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -19,8 +19,22 @@ public class SmaliFileParser
 {
     private static final Logger LOG = LogManager.getLogger();
 
-    private static final String INVOKE_METHOD = "invoke-.* .*";
-    private static final String SET_CONST_STRING = "(const-string|const-string/jumbo) .., \".*\"";
+    private static final String INVOKE_METHOD = "invoke-";
+    private static final String END_METHOD = ".end method";
+    private static final String MOVE_RESULT = "move-result";
+    private static final String MOVE = "move";
+    private static final String CONST_STRING = "const-string";
+    private static final String CONST_CLASS = "const-class";
+    private static final String CONST_LITERAL = "const";
+    private static final Pattern SET_CONST_STRING = Pattern.compile("(const-string|const-string/jumbo) .., \".*\"");
+    private static final Pattern REGISTER_SEPARATOR = Pattern.compile(", ");
+    // instructions writing the register of their first operand, besides moves and the constants handled on their own
+    private static final Pattern WRITING_INSTRUCTION = Pattern.compile("(const-|new-|sget|iget|aget|instance-of|array-length|cmp|neg-|not-|"
+            + "add-|sub-|rsub-|mul-|div-|rem-|and-|or-|xor-|shl-|shr-|ushr-|int-to-|long-to-|float-to-|double-to-)\\S* .*");
+    // instructions writing a register pair, the comparisons of wide values only write a single register
+    private static final Pattern WIDE_INSTRUCTION = Pattern.compile("(?!cmp)\\S*(-wide|-long|-double)\\S* .*");
+    // number of lines parsed between two checks of the analysis budget
+    private static final int BUDGET_CHECK_INTERVAL = 1024;
 
     public static SmaliHeader parseSmaliHeader(final Path filePath) throws IOException
     {
@@ -50,77 +64,221 @@ public class SmaliFileParser
         }
     }
 
-    public static void parseMethod(final Path filePath, final String methodName, final Map<String, IndexEntry> indexMap, final Map<String, String> registerMap,
-                                   final SetMultimap<String, String> intentResultMap, final SetMultimap<String, String> bundleResultMap,
-                                   final Set<String> stringSet, int depth) throws IOException
+    /**
+     * Parses the method and the methods it invokes up to the maximum depth.
+     *
+     * @param registerMap     the constant strings of the parameter registers
+     * @param bundleRegisters the parameter registers holding extras of an intent
+     */
+    public static void parseMethod(final Path filePath, final String methodName, final ClassIndex index, final Map<String, String> registerMap,
+                                   final Set<String> bundleRegisters, final InvocationResults results, final Set<String> stringSet, final AnalysisBudget budget,
+                                   int depth) throws IOException
     {
+        budget.visitMethod();
         try (BufferedReader reader = Files.newBufferedReader(filePath))
         {
             String line;
+            int lineCount = 0;
             while ((line = reader.readLine()) != null)
             {
+                if (++lineCount % BUDGET_CHECK_INTERVAL == 0)
+                    budget.check();
                 line = line.trim();
                 if (line.startsWith(".method") && line.endsWith(methodName))
                 {
                     // found method
                     LOG.debug("Parsing method: {}", methodName);
+                    final Map<String, String> literalMap = Maps.newHashMap();
+                    final Map<String, String> trackedValueMap = Maps.newHashMap();
+                    String pendingValue = null;
+                    boolean pendingBundle = false;
                     while ((line = reader.readLine()) != null)
                     {
+                        if (++lineCount % BUDGET_CHECK_INTERVAL == 0)
+                            budget.check();
                         line = line.trim();
-                        if (line.matches(INVOKE_METHOD)) // handles method invocation
+                        if (line.startsWith(END_METHOD))
+                            return;
+                        if (line.startsWith(INVOKE_METHOD)) // handles method invocation
                         {
-                            final String caller = line.substring(line.lastIndexOf(", ") + 2, line.indexOf("->"));
-                            final String name = line.substring(line.indexOf("->") + 2, line.lastIndexOf('('));
-                            final String[] registers = Pattern.compile(", ").split(line.substring(line.indexOf('{') + 1, line.indexOf('}')));
+                            pendingValue = null;
+                            pendingBundle = false;
+                            final String reference = line.substring(line.lastIndexOf(", ") + 2);
+                            final String[] registers = REGISTER_SEPARATOR.split(line.substring(line.indexOf('{') + 1, line.indexOf('}')));
 
-                            if (Constants.INTENT_CLASS.equals(caller) && name.toLowerCase().contains("get"))
+                            final SinkModel.Sink sink = SinkModel.getSink(reference);
+                            if (sink != null)
                             {
-                                if (registers.length > 1)
-                                {
-                                    final String value = registerMap.get(registers[1]);
-                                    if (value != null)
-                                        intentResultMap.put(name, value);
-                                }
+                                // getters of other bundles, e.g. the saved instance state, do not read extras of an intent
+                                if (sink.getTarget() == SinkModel.Target.BUNDLE && !bundleRegisters.contains(registers[0]))
+                                    continue;
+                                pendingValue = handleSink(sink, registers, registerMap, literalMap, trackedValueMap, results);
+                                pendingBundle = sink.isReturningBundle();
                             }
-                            else if (Constants.BUNDLE_CLASS.equals(caller) && name.toLowerCase().contains("get"))
+                            else if (depth < ApplicationProperties.getInstance().getMaxDepth())
                             {
-                                if (registers.length > 1)
-                                {
-                                    final String value = registerMap.get(registers[1]);
-                                    if (value != null)
-                                        bundleResultMap.put(name, value);
-                                }
-                            }
-                            else if (indexMap.get(caller) != null && depth < ApplicationProperties.getInstance().getMaxDepth())
-                            {
-                                final IndexEntry index = indexMap.get(caller);
-                                final String fullName = line.substring(line.indexOf("->") + 2);
+                                final IndexEntry entry = index.get(reference.substring(0, reference.indexOf("->")));
+                                if (entry == null)
+                                    continue;
+
+                                final String fullName = reference.substring(reference.indexOf("->") + 2);
 
-                                int paramCount = 0;
-                                int startIndex = line.startsWith("invoke-static") ? 0 : 1;
+                                // the registers of an invocation are the parameter registers of the callee, including this as p0
                                 final Map<String, String> subRegisterMap = Maps.newHashMap();
-                                for (int i = startIndex; i < registers.length; ++i)
+                                final Set<String> subBundleRegisters = Sets.newHashSet();
+                                for (int i = 0; i < registers.length; ++i)
                                 {
                                     final String value = registerMap.get(registers[i]);
                                     if (value != null)
-                                        subRegisterMap.put("p" + paramCount, value);
-                                    paramCount++;
+                                        subRegisterMap.put("p" + i, value);
+                                    if (bundleRegisters.contains(registers[i]))
+                                        subBundleRegisters.add("p" + i);
                                 }
 
-                                parseMethod(index.getFilePath(), fullName, indexMap, subRegisterMap, intentResultMap, bundleResultMap, stringSet, depth + 1);
+                                parseMethod(entry.getFilePath(), fullName, index, subRegisterMap, subBundleRegisters, results, stringSet,
+                                        budget, depth + 1);
+                            }
+                        }
+                        else if (line.startsWith(MOVE_RESULT)) // handles results of tracked values
+                        {
+                            final String register = line.substring(line.indexOf(' ') + 1);
+                            clearRegister(line, register, registerMap, literalMap, trackedValueMap, bundleRegisters);
+                            if (pendingValue != null)
+                                trackedValueMap.put(register, pendingValue);
+                            if (pendingBundle)
+                                bundleRegisters.add(register);
+                            pendingValue = null;
+                            pendingBundle = false;
+                        }
+                        else if (line.startsWith(CONST_STRING))
+                        {
+                            pendingValue = null;
+                            pendingBundle = false;
+                            final String register = line.substring(line.indexOf(' ') + 1, line.indexOf(','));
+                            clearRegister(line, register, registerMap, literalMap, trackedValueMap, bundleRegisters);
+                            if (SET_CONST_STRING.matcher(line).matches()) // handles constants strings
+                            {
+                                final String value = line.substring(line.indexOf('\"') + 1, line.lastIndexOf('\"'));
+                                registerMap.put(register, value);
+                                if (value.trim().length() > 1)
+                                    stringSet.add(value.trim());
                             }
                         }
-                        else if (line.matches(SET_CONST_STRING)) // handles constants strings
+                        else if (line.startsWith(CONST_LITERAL) && !line.startsWith(CONST_CLASS)) // handles typed literals
                         {
+                            pendingValue = null;
+                            pendingBundle = false;
                             final String register = line.substring(line.indexOf(' ') + 1, line.indexOf(','));
-                            final String value = line.substring(line.indexOf('\"') + 1, line.lastIndexOf('\"'));
-                            registerMap.put(register, value);
-                            if (value.trim().length() > 1)
-                                stringSet.add(value.trim());
+                            clearRegister(line, register, registerMap, literalMap, trackedValueMap, bundleRegisters);
+                            // baksmali appends the decoded value of float and double literals as a comment
+                            String literal = line.substring(line.indexOf(", ") + 2);
+                            if (literal.indexOf('#') >= 0)
+                                literal = literal.substring(0, literal.indexOf('#'));
+                            literalMap.put(register, literal.trim());
+                        }
+                        else if (line.startsWith(MOVE)) // handles copies of registers
+                        {
+                            pendingValue = null;
+                            pendingBundle = false;
+                            final String[] operands = REGISTER_SEPARATOR.split(line.substring(line.indexOf(' ') + 1));
+                            clearRegister(line, operands[0], registerMap, literalMap, trackedValueMap, bundleRegisters);
+                            if (operands.length > 1)
+                            {
+                                copyRegister(operands[1], operands[0], registerMap);
+                                copyRegister(operands[1], operands[0], literalMap);
+                                copyRegister(operands[1], operands[0], trackedValueMap);
+                                if (bundleRegisters.contains(operands[1]))
+                                    bundleRegisters.add(operands[0]);
+                            }
+                        }
+                        else if (WRITING_INSTRUCTION.matcher(line).matches()) // handles all other writes of registers
+                        {
+                            pendingValue = null;
+                            pendingBundle = false;
+                            final int operandsEnd = line.indexOf(',');
+                            final String register = line.substring(line.indexOf(' ') + 1, operandsEnd > 0 ? operandsEnd : line.length());
+                            clearRegister(line, register, registerMap, literalMap, trackedValueMap, bundleRegisters);
                         }
                     }
                 }
             }
         }
     }
+
+    /**
+     * Removes all values tracked in the register written by the instruction, including the second register of a
+     * register pair written by wide instructions.
+     */
+    private static void clearRegister(final String line, final String register, final Map<String, String> registerMap,
+                                      final Map<String, String> literalMap, final Map<String, String> trackedValueMap,
+                                      final Set<String> bundleRegisters)
+    {
+        registerMap.remove(register);
+        literalMap.remove(register);
+        trackedValueMap.remove(register);
+        bundleRegisters.remove(register);
+        if (WIDE_INSTRUCTION.matcher(line).matches())
+        {
+            final String nextRegister = register.charAt(0) + Integer.toString(Integer.parseInt(register.substring(1)) + 1);
+            registerMap.remove(nextRegister);
+            literalMap.remove(nextRegister);
+            trackedValueMap.remove(nextRegister);
+            bundleRegisters.remove(nextRegister);
+        }
+    }
+
+    private static void copyRegister(final String source, final String target, final Map<String, String> valueMap)
+    {
+        final String value = valueMap.get(source);
+        if (value != null)
+            valueMap.put(target, value);
+    }
+
+    /**
+     * Records the invocation of a sink and returns the name of the value tracked in the register its result
+     * is moved to, or null if its result is not tracked.
+     */
+    private static String handleSink(final SinkModel.Sink sink, final String[] registers, final Map<String, String> registerMap,
+                                     final Map<String, String> literalMap, final Map<String, String> trackedValueMap,
+                                     final InvocationResults results)
+    {
+        switch (sink.getKind())
+        {
+            case KEYED:
+            case KEYED_DEFAULT:
+                if (registers.length > 1)
+                {
+                    final String key = registerMap.get(registers[1]);
+                    if (key != null)
+                    {
+                        results.putInvocation(sink.getTarget(), sink.getName(), key);
+                        if (sink.getKind() == SinkModel.Kind.KEYED_DEFAULT && registers.length > 2)
+                        {
+                            final String defaultValue = sink.getDefaultType() == 'L' ? registerMap.get(registers[2]) :
+                                    literalMap.containsKey(registers[2]) ? SinkModel.formatLiteral(sink.getDefaultType(), literalMap.get(registers[2])) : null;
+                            if (defaultValue != null)
+                                results.getDefaultValues().put(key, defaultValue);
+                        }
+                    }
+                }
+                return null;
+            case VALUE:
+                return sink.getName();
+            case DERIVED:
+                final String receiverValue = trackedValueMap.get(registers[0]);
+                return receiverValue != null ? receiverValue + "." + sink.getName() : null;
+            case COMPARISON:
+                if (registers.length > 1)
+                {
+                    // the tracked value can either be the receiver or the argument of the comparison
+                    if (trackedValueMap.containsKey(registers[0]) && registerMap.containsKey(registers[1]))
+                        results.getComparedValues().put(trackedValueMap.get(registers[0]), registerMap.get(registers[1]));
+                    else if (trackedValueMap.containsKey(registers[1]) && registerMap.containsKey(registers[0]))
+                        results.getComparedValues().put(trackedValueMap.get(registers[1]), registerMap.get(registers[0]));
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
 }
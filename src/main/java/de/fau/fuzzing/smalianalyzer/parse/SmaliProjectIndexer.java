@@ -1,8 +1,7 @@
 package de.fau.fuzzing.smalianalyzer.parse;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import de.fau.fuzzing.smalianalyzer.AnalysisBudget;
 import de.fau.fuzzing.smalianalyzer.Constants;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,8 +9,6 @@ import org.apache.logging.log4j.Logger;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class SmaliProjectIndexer
@@ -19,8 +16,10 @@ public class SmaliProjectIndexer
     private static final Logger LOG = LogManager.getLogger();
 
     private final Path projectRootPath;
+    // kept on the heap in all modes, it only grows with the component classes and not with all indexed classes
     private final Set<Path> componentList = Sets.newHashSet();
-    private final Map<String, IndexEntry> indexMap = Maps.newHashMap();
+    private final ClassIndex index;
+    private final AnalysisBudget budget;
 
     private class IndexerFileVisitor extends SimpleFileVisitor<Path>
     {
@@ -30,10 +29,11 @@ public class SmaliProjectIndexer
             final PathMatcher fileMatcher = FileSystems.getDefault().getPathMatcher("glob:**.smali");
             if (fileMatcher.matches(path))
             {
+                budget.check();
                 try
                 {
                     final SmaliHeader header = SmaliFileParser.parseSmaliHeader(path);
-                    indexMap.put(header.getClassName(), new IndexEntry(path, header));
+                    index.put(header.getClassName(), new IndexEntry(path, header));
                 }
                 catch (Exception e)
                 {
@@ -46,18 +46,30 @@ public class SmaliProjectIndexer
     }
 
     public SmaliProjectIndexer(final Path projectRootPath) throws IOException
+    {
+        this(projectRootPath, new HeapClassIndex());
+    }
+
+    public SmaliProjectIndexer(final Path projectRootPath, final ClassIndex index) throws IOException
+    {
+        this(projectRootPath, index, AnalysisBudget.unlimited());
+    }
+
+    public SmaliProjectIndexer(final Path projectRootPath, final ClassIndex index, final AnalysisBudget budget) throws IOException
     {
         this.projectRootPath = projectRootPath;
+        this.index = index;
+        this.budget = budget;
     }
 
     public void indexProject() throws IOException
     {
         LOG.info("Indexing smali project: {}", projectRootPath.toString());
-        indexMap.clear();
+        index.clear();
         componentList.clear();
         Files.walkFileTree(projectRootPath, new IndexerFileVisitor());
         findComponentClasses();
-        LOG.info("Indexed {} smali files", indexMap.keySet().size());
+        LOG.info("Indexed {} smali files", index.size());
         LOG.info("Identified {} component classes", componentList.size());
         LOG.info("Identified {} parcable classes", componentList.size());
     }
@@ -68,19 +80,19 @@ public class SmaliProjectIndexer
         final Set<String> superClasses = Sets.newHashSet(Constants.ANDROID_COMPONENTS);
         do
         {
+            budget.check();
             lastSize = superClasses.size();
-            for (final String className : indexMap.keySet())
+            index.forEach((className, entry) ->
             {
-                final IndexEntry index = indexMap.get(className);
-                if (superClasses.contains(index.getSuperClass()))
+                if (superClasses.contains(entry.getSuperClass()))
                 {
                     if (!superClasses.contains(className))
                     {
-                        componentList.add(index.getFilePath());
+                        componentList.add(entry.getFilePath());
                         superClasses.add(className);
                     }
                 }
-            }
+            });
         }
         while (superClasses.size() != lastSize);
     }
@@ -90,8 +102,8 @@ public class SmaliProjectIndexer
         return componentList;
     }
 
-    public Map<String, IndexEntry> getIndexMap()
+    public ClassIndex getIndex()
     {
-        return indexMap;
+        return index;
     }
 }
@@ -0,0 +1,111 @@
+package de.fau.fuzzing.smalianalyzer.schedule;
+
+import com.google.common.io.ByteStreams;
+import de.fau.fuzzing.smalianalyzer.decode.ApkBundle;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The estimated cost of analyzing an APK file, based on its size and the class and method counts stored in the
+ * headers of its dex files. Only the zip directory and the first bytes of each dex entry are read.
+ */
+public class ApkCost
+{
+    private static final Logger LOG = LogManager.getLogger(ApkCost.class.getName());
+
+    private static final int DEX_HEADER_SIZE = 0x70;
+    private static final int METHOD_IDS_SIZE_OFFSET = 0x58;
+    private static final int CLASS_DEFS_SIZE_OFFSET = 0x60;
+    // rough ratio used for inputs without readable dex headers, e.g. bundles whose splits are nested zip files
+    private static final long BYTES_PER_METHOD = 100;
+
+    private final Path filePath;
+    private final long fileSize;
+    private int dexCount = 0;
+    private long classCount = 0;
+    private long methodCount = 0;
+
+    private ApkCost(final Path filePath, final long fileSize)
+    {
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+    }
+
+    public static ApkCost estimate(final Path filePath) throws IOException
+    {
+        final ApkCost cost = new ApkCost(filePath, Files.size(filePath));
+        if (ApkBundle.isBundle(filePath))
+            return cost;
+
+        try (ZipFile zipFile = new ZipFile(filePath.toFile()))
+        {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements())
+            {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || entry.getName().contains("/") || !entry.getName().endsWith(".dex"))
+                    continue;
+
+                final byte[] header = new byte[DEX_HEADER_SIZE];
+                try (InputStream inputStream = zipFile.getInputStream(entry))
+                {
+                    if (ByteStreams.read(inputStream, header, 0, header.length) != header.length)
+                        continue;
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                cost.dexCount++;
+                cost.methodCount += buffer.getInt(METHOD_IDS_SIZE_OFFSET) & 0xFFFFFFFFL;
+                cost.classCount += buffer.getInt(CLASS_DEFS_SIZE_OFFSET) & 0xFFFFFFFFL;
+            }
+        }
+        catch (IOException e)
+        {
+            // the analysis reports broken files, for scheduling the file size is good enough
+            LOG.warn("Failed reading dex headers of apk file: {}", filePath.toString());
+        }
+        return cost;
+    }
+
+    public Path getFilePath()
+    {
+        return filePath;
+    }
+
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    public int getDexCount()
+    {
+        return dexCount;
+    }
+
+    public long getClassCount()
+    {
+        return classCount;
+    }
+
+    public long getMethodCount()
+    {
+        return methodCount;
+    }
+
+    /**
+     * @return the estimated cost in referenced methods
+     */
+    public long getCost()
+    {
+        return methodCount > 0 ? methodCount + classCount : fileSize / BYTES_PER_METHOD;
+    }
+}
@@ -0,0 +1,278 @@
+package de.fau.fuzzing.smalianalyzer.schedule;
+
+import com.google.common.collect.Lists;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the analysis of a batch of APK files on a fixed number of workers. APK files are started in the order of
+ * their estimated cost, largest first, so a few big APK files do not end up at the end of the batch. Once no APK
+ * file is left to start, idle workers help with the shared work lists of the APK files still being analyzed.
+ */
+public class BatchScheduler
+{
+    private static final Logger LOG = LogManager.getLogger(BatchScheduler.class.getName());
+    private static final long IDLE_WAIT_MILLIS = 100;
+
+    /**
+     * The analysis of a single APK file. Exceptions thrown by a task are logged and only fail that APK file,
+     * the worker continues with the next one.
+     */
+    public interface ApkTask
+    {
+        void run(Path apkFilePath) throws IOException, InterruptedException;
+    }
+
+    public static class Timing
+    {
+        private final ApkCost cost;
+        private final long startNanos;
+        private final long endNanos;
+
+        private Timing(final ApkCost cost, final long startNanos, final long endNanos)
+        {
+            this.cost = cost;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        public ApkCost getCost()
+        {
+            return cost;
+        }
+
+        public long getDurationMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+        }
+    }
+
+    /**
+     * Describes the end of the batch: the tail starts when the first worker finds no APK file left to start and
+     * lasts until the last APK file is finished.
+     */
+    public static class Report
+    {
+        private final long makespanMillis;
+        private final long tailMillis;
+        private final double tailUtilization;
+        private final long helpMillis;
+        private final List<Timing> timings;
+
+        private Report(final long makespanMillis, final long tailMillis, final double tailUtilization, final long helpMillis,
+                       final List<Timing> timings)
+        {
+            this.makespanMillis = makespanMillis;
+            this.tailMillis = tailMillis;
+            this.tailUtilization = tailUtilization;
+            this.helpMillis = helpMillis;
+            this.timings = timings;
+        }
+
+        public long getMakespanMillis()
+        {
+            return makespanMillis;
+        }
+
+        public long getTailMillis()
+        {
+            return tailMillis;
+        }
+
+        /**
+         * @return the share of worker time spent on APK files or helping during the tail, between 0 and 1
+         */
+        public double getTailUtilization()
+        {
+            return tailUtilization;
+        }
+
+        public long getHelpMillis()
+        {
+            return helpMillis;
+        }
+
+        /**
+         * @return the timings of all APK files, slowest first
+         */
+        public List<Timing> getTimings()
+        {
+            return timings;
+        }
+    }
+
+    private final int workerCount;
+    private final PriorityQueue<ApkCost> queue = new PriorityQueue<>(Comparator.comparingLong(ApkCost::getCost).reversed());
+    private final List<SharedWorkList<?, ?>> sharedWork = Lists.newArrayList();
+    private final List<Timing> timings = Lists.newArrayList();
+    private int running = 0;
+    private long tailStartNanos = 0;
+    private long helpNanos = 0;
+
+    public BatchScheduler(final int workerCount)
+    {
+        this.workerCount = workerCount;
+    }
+
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    public Report run(final List<Path> apkFilePaths, final ApkTask task) throws IOException, InterruptedException
+    {
+        for (final Path apkFilePath : apkFilePaths)
+            queue.add(ApkCost.estimate(apkFilePath));
+
+        final long startNanos = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        try
+        {
+            for (int i = 0; i < workerCount; ++i)
+                executor.execute(() -> work(task));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+            LOG.info("Waiting for {} running apk files", running);
+        final long endNanos = System.nanoTime();
+
+        synchronized (this)
+        {
+            if (tailStartNanos == 0)
+                tailStartNanos = endNanos;
+
+            // worker time spent on apk files during the tail, in addition to the time spent helping
+            long busyNanos = helpNanos;
+            for (final Timing timing : timings)
+                busyNanos += Math.max(0, timing.endNanos - Math.max(timing.startNanos, tailStartNanos));
+            final long tailNanos = endNanos - tailStartNanos;
+            final double tailUtilization = tailNanos > 0 ? Math.min(1.0, (double) busyNanos / (tailNanos * workerCount)) : 1.0;
+
+            final List<Timing> sortedTimings = Lists.newArrayList(timings);
+            sortedTimings.sort(Comparator.comparingLong((Timing timing) -> timing.endNanos - timing.startNanos).reversed());
+            return new Report(TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos), TimeUnit.NANOSECONDS.toMillis(tailNanos),
+                    tailUtilization, TimeUnit.NANOSECONDS.toMillis(helpNanos), sortedTimings);
+        }
+    }
+
+    /**
+     * Offers the items of the list to idle workers until it is withdrawn again.
+     */
+    public synchronized void share(final SharedWorkList<?, ?> workList)
+    {
+        sharedWork.add(workList);
+        notifyAll();
+    }
+
+    public synchronized void withdraw(final SharedWorkList<?, ?> workList)
+    {
+        sharedWork.remove(workList);
+    }
+
+    private void work(final ApkTask task)
+    {
+        try
+        {
+            while (true)
+            {
+                ApkCost next;
+                SharedWorkList<?, ?> help = null;
+                synchronized (this)
+                {
+                    next = queue.poll();
+                    if (next != null)
+                    {
+                        running++;
+                    }
+                    else
+                    {
+                        if (tailStartNanos == 0)
+                            tailStartNanos = System.nanoTime();
+                        help = getLargestSharedWork();
+                        if (help == null)
+                        {
+                            if (running == 0)
+                                return;
+                            wait(IDLE_WAIT_MILLIS);
+                            continue;
+                        }
+                    }
+                }
+
+                if (next != null)
+                    runApk(next, task);
+                else
+                    runHelp(help);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            synchronized (this)
+            {
+                queue.clear();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runApk(final ApkCost cost, final ApkTask task) throws InterruptedException
+    {
+        final long startNanos = System.nanoTime();
+        try
+        {
+            task.run(cost.getFilePath());
+        }
+        catch (IOException | RuntimeException | StackOverflowError e)
+        {
+            // a failing apk file must not take its worker down with it, deep smali call chains may overflow the stack
+            System.err.println(String.format("Failed analyzing apk file: %s", cost.getFilePath().toString()));
+            e.printStackTrace();
+            LOG.error(e);
+        }
+        finally
+        {
+            final long endNanos = System.nanoTime();
+            synchronized (this)
+            {
+                running--;
+                timings.add(new Timing(cost, startNanos, endNanos));
+                notifyAll();
+            }
+        }
+    }
+
+    private void runHelp(final SharedWorkList<?, ?> workList)
+    {
+        final long startNanos = System.nanoTime();
+        if (workList.runNext())
+        {
+            synchronized (this)
+            {
+                helpNanos += System.nanoTime() - startNanos;
+            }
+        }
+    }
+
+    private SharedWorkList<?, ?> getLargestSharedWork()
+    {
+        SharedWorkList<?, ?> largest = null;
+        for (final SharedWorkList<?, ?> workList : sharedWork)
+        {
+            if (workList.getRemaining() > 0 && (largest == null || workList.getRemaining() > largest.getRemaining()))
+                largest = workList;
+        }
+        return largest;
+    }
+}
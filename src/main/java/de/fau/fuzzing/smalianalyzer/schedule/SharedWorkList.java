@@ -0,0 +1,151 @@
+package de.fau.fuzzing.smalianalyzer.schedule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A list of independent work items of a single APK file, e.g. its components. The owning thread processes the
+ * items one by one, while idle workers of the {@link BatchScheduler} can claim items of the same list. Results
+ * are consumed in the order of the items, regardless of which thread computed them, and released once consumed.
+ */
+public class SharedWorkList<T, R>
+{
+    public interface ItemTask<T, R>
+    {
+        R run(T item) throws IOException;
+    }
+
+    private final List<T> items;
+    private final ItemTask<T, R> task;
+    private final AtomicReferenceArray<CompletableFuture<R>> results;
+    private final AtomicInteger next = new AtomicInteger(0);
+    // threads inside runNext, guarded by this
+    private int running = 0;
+
+    public SharedWorkList(final List<T> items, final ItemTask<T, R> task)
+    {
+        this.items = items;
+        this.task = task;
+        this.results = new AtomicReferenceArray<>(items.size());
+        for (int i = 0; i < items.size(); ++i)
+            results.set(i, new CompletableFuture<>());
+    }
+
+    public int size()
+    {
+        return items.size();
+    }
+
+    public int getRemaining()
+    {
+        return Math.max(0, items.size() - next.get());
+    }
+
+    /**
+     * Claims and processes the next unclaimed item.
+     *
+     * @return false if all items were already claimed
+     */
+    public boolean runNext()
+    {
+        // counted before claiming, so awaitIdle can not miss an item claimed concurrently with cancel
+        synchronized (this)
+        {
+            running++;
+        }
+        try
+        {
+            final int index = next.getAndIncrement();
+            if (index >= items.size())
+                return false;
+
+            try
+            {
+                results.get(index).complete(task.run(items.get(index)));
+            }
+            catch (IOException e)
+            {
+                results.get(index).completeExceptionally(new UncheckedIOException(e));
+            }
+            catch (Throwable e)
+            {
+                results.get(index).completeExceptionally(e);
+            }
+            return true;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                if (--running == 0)
+                    notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return true if the item was processed, its result can then be taken without waiting
+     */
+    public boolean isDone(final int index)
+    {
+        return results.get(index).isDone();
+    }
+
+    /**
+     * Returns the result of the item and releases it, waiting for another thread to finish processing it if
+     * necessary. The result of each item can only be taken once.
+     */
+    public R take(final int index) throws IOException
+    {
+        try
+        {
+            return results.getAndSet(index, null).join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Prevents any further items from being claimed, e.g. after the owner failed.
+     */
+    public void cancel()
+    {
+        next.set(items.size());
+    }
+
+    /**
+     * Waits until no thread processes an item of the list anymore, so the resources used by the items can be
+     * released. Only returns for sure after {@link #cancel()} or once all items were claimed. Interrupts are
+     * deferred until the items are drained.
+     */
+    public synchronized void awaitIdle()
+    {
+        boolean interrupted = false;
+        while (running > 0)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
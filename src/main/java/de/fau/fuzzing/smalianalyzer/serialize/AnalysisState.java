@@ -0,0 +1,143 @@
+package de.fau.fuzzing.smalianalyzer.serialize;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import de.fau.fuzzing.smalianalyzer.Constants;
+import de.fau.fuzzing.smalianalyzer.parse.InvocationResults;
+import de.fau.fuzzing.smalianalyzer.parse.SinkModel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The per-component results of an analyzed APK file, together with the content hashes of all classes each
+ * component's parsing depended on. Used to carry forward results of unchanged components to the analysis
+ * of the next version of the same application.
+ */
+public class AnalysisState
+{
+    public static class ComponentState
+    {
+        private Set<String> dependencies;
+        private Map<String, Collection<String>> intentInvocations;
+        private Map<String, Collection<String>> bundleInvocations;
+        private Map<String, Collection<String>> defaultValues;
+        private Map<String, Collection<String>> comparedValues;
+        private Set<String> strings;
+
+        public void copyTo(final InvocationResults results, final Set<String> stringSet)
+        {
+            intentInvocations.forEach(results.getIntentResults()::putAll);
+            bundleInvocations.forEach(results.getBundleResults()::putAll);
+            defaultValues.forEach(results.getDefaultValues()::putAll);
+            comparedValues.forEach(results.getComparedValues()::putAll);
+            stringSet.addAll(strings);
+        }
+
+        public Set<String> getDependencies()
+        {
+            return dependencies;
+        }
+    }
+
+    // incremented whenever the parser finds different results in the same code, invalidating all written states
+    private static final int PARSER_VERSION = 2;
+
+    private String configuration;
+    private Map<String, String> classHashes = Maps.newHashMap();
+    private Map<String, ComponentState> components = Maps.newHashMap();
+
+    public AnalysisState(final String configuration)
+    {
+        this.configuration = configuration;
+    }
+
+    /**
+     * @return the hash of the configuration the state was created with, null for states of older versions
+     */
+    public String getConfiguration()
+    {
+        return configuration;
+    }
+
+    /**
+     * Hashes everything besides the parsed classes the results depend on: the parser version, the maximum depth,
+     * the sink table and the components and entry methods which are parsed. Results of a state can only be carried
+     * forward to an analysis with the same configuration.
+     */
+    public static String hashConfiguration(final int maxDepth)
+    {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(PARSER_VERSION).putInt(maxDepth).putString(SinkModel.hashTable(), StandardCharsets.UTF_8);
+        for (final String componentClass : Sets.newTreeSet(Constants.ANDROID_COMPONENTS))
+            hasher.putString(componentClass, StandardCharsets.UTF_8).putChar('\n');
+        for (final String entryMethod : Sets.newTreeSet(Constants.COMPONENT_ENTRY_METHODS))
+            hasher.putString(entryMethod, StandardCharsets.UTF_8).putChar('\n');
+        return hasher.hash().toString();
+    }
+
+    public ComponentState getComponent(final String componentName)
+    {
+        return components.get(componentName);
+    }
+
+    /**
+     * Returns true if all classes the component depended on still have the same content hash.
+     *
+     * @param hashFunction maps a class name to the hash of its current content, or an empty string for missing classes
+     */
+    public boolean isUpToDate(final ComponentState component, final Function<String, String> hashFunction)
+    {
+        for (final String className : component.dependencies)
+        {
+            if (!Objects.equals(classHashes.get(className), hashFunction.apply(className)))
+                return false;
+        }
+        return true;
+    }
+
+    public void putComponent(final String componentName, final Set<String> dependencies, final Function<String, String> hashFunction,
+                             final InvocationResults results, final Set<String> strings)
+    {
+        final ComponentState component = new ComponentState();
+        component.dependencies = Sets.newHashSet(dependencies);
+        component.intentInvocations = Maps.newHashMap(results.getIntentResults().asMap());
+        component.bundleInvocations = Maps.newHashMap(results.getBundleResults().asMap());
+        component.defaultValues = Maps.newHashMap(results.getDefaultValues().asMap());
+        component.comparedValues = Maps.newHashMap(results.getComparedValues().asMap());
+        component.strings = Sets.newHashSet(strings);
+        for (final String className : dependencies)
+            classHashes.computeIfAbsent(className, hashFunction);
+        components.put(componentName, component);
+    }
+
+    public static AnalysisState read(final Path statePath) throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader(statePath, StandardCharsets.UTF_8))
+        {
+            return new Gson().fromJson(reader, AnalysisState.class);
+        }
+    }
+
+    public void write(final Path statePath) throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter(statePath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            new Gson().toJson(this, writer);
+        }
+    }
+}
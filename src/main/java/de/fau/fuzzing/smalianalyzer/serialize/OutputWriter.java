@@ -3,12 +3,14 @@ package de.fau.fuzzing.smalianalyzer.serialize;
 import com.google.common.collect.SetMultimap;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import de.fau.fuzzing.smalianalyzer.ApplicationProperties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
@@ -24,18 +26,58 @@ public class OutputWriter
 {
     private static final Logger LOG = LogManager.getLogger(OutputWriter.class.getName());
 
+    /**
+     * Writes the members of a single json object to a file one at a time, so they do not have to be
+     * kept in memory until the whole object is complete.
+     */
+    public static class JsonObjectWriter implements Closeable
+    {
+        private final Gson gson = createGson();
+        private final JsonWriter jsonWriter;
+
+        private JsonObjectWriter(final Path outputPath) throws IOException
+        {
+            LOG.info("Streaming result to json file: {}", outputPath.toString());
+            this.jsonWriter = gson.newJsonWriter(Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+            this.jsonWriter.beginObject();
+        }
+
+        public void write(final String name, final Object value) throws IOException
+        {
+            jsonWriter.name(name);
+            gson.toJson(value, value.getClass(), jsonWriter);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            jsonWriter.endObject();
+            jsonWriter.close();
+        }
+    }
+
+    private static Gson createGson()
+    {
+        return new GsonBuilder().setPrettyPrinting().disableHtmlEscaping()
+                .registerTypeAdapter(SetMultimap.class, new JsonSetMultimapSerializer()).create();
+    }
+
     public static void writeToJSONFile(final Path outputPath, final Object data) throws IOException
     {
         try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8,
                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
         {
             LOG.info("Writing result to json file: {}", outputPath.toString());
-            Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping()
-                    .registerTypeAdapter(SetMultimap.class, new JsonSetMultimapSerializer()).create();
-            writer.write(gson.toJson(data));
+            writer.write(createGson().toJson(data));
         }
     }
 
+    public static JsonObjectWriter openJSONObjectFile(final Path outputPath) throws IOException
+    {
+        return new JsonObjectWriter(outputPath);
+    }
+
     public static void writeToStringFile(final Path outputPath, final Set<String> stringSet) throws IOException
     {
         try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8,
@@ -48,6 +90,10 @@ public class OutputWriter
                 writer.newLine();
             }
 
+            // fuzzing is skipped without a configured radamsa installation
+            if (ApplicationProperties.getInstance().getRadamsaPath().isEmpty())
+                return;
+
             LOG.info("Fuzzing string results");
             final String[] cmd = {ApplicationProperties.getInstance().getRadamsaPath(), "-o", outputPath.toString(), "-r", outputPath.toString()};
             final Process process = Runtime.getRuntime().exec(cmd);
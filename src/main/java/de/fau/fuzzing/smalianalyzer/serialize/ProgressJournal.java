@@ -0,0 +1,210 @@
+package de.fau.fuzzing.smalianalyzer.serialize;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only journal in the output folder, which records the analysis status of each APK file together with
+ * its hash and the checksums of the written result files. The latest record of an APK file supersedes older ones.
+ */
+public class ProgressJournal implements Closeable
+{
+    private static final Logger LOG = LogManager.getLogger(ProgressJournal.class.getName());
+    private static final String JOURNAL_FILE_NAME = "smalianalyzer.journal";
+
+    private enum Status
+    {
+        STARTED, FINISHED, TRUNCATED, FAILED
+    }
+
+    private static class Record
+    {
+        private String apk;
+        private long size;
+        private long lastModified;
+        private String hash;
+        private Status status;
+        private Map<String, String> outputs;
+    }
+
+    private final Gson gson = new Gson();
+    private final Map<String, Record> records = Maps.newHashMap();
+    private final BufferedWriter writer;
+
+    private ProgressJournal(final Path journalPath) throws IOException
+    {
+        if (Files.exists(journalPath))
+        {
+            try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    try
+                    {
+                        final Record record = gson.fromJson(line, Record.class);
+                        if (record != null && record.apk != null && record.status != null)
+                            records.put(record.apk, record);
+                    }
+                    catch (JsonParseException e)
+                    {
+                        // the last line might be incomplete if the previous run was killed while writing it
+                        LOG.warn("Skipping malformed journal line: {}", line);
+                    }
+                }
+            }
+        }
+
+        this.writer = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!endsWithNewLine(journalPath))
+        {
+            // terminate an incomplete last line, so the next record starts on a line of its own
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    public static ProgressJournal open(final Path outputPath) throws IOException
+    {
+        return new ProgressJournal(outputPath.resolve(JOURNAL_FILE_NAME));
+    }
+
+    /**
+     * Returns true if the APK file was analyzed successfully before, has not changed since and all of its
+     * result files are still present and unmodified.
+     */
+    public synchronized boolean isCompleted(final Path apkFilePath, final List<Path> outputPaths) throws IOException
+    {
+        final Record record = records.get(getKey(apkFilePath));
+        if (record == null || record.status != Status.FINISHED || record.outputs == null)
+            return false;
+
+        // the hash is only recomputed if size or modification time indicate a changed file
+        if (record.size != Files.size(apkFilePath) || record.lastModified != Files.getLastModifiedTime(apkFilePath).toMillis())
+        {
+            if (!record.hash.equals(hash(apkFilePath)))
+                return false;
+        }
+
+        for (final Path outputPath : outputPaths)
+        {
+            final String checksum = record.outputs.get(outputPath.getFileName().toString());
+            if (checksum == null || Files.notExists(outputPath) || !checksum.equals(hash(outputPath)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the analysis of the APK file was started, but neither finished nor failed.
+     */
+    public synchronized boolean isInterrupted(final Path apkFilePath)
+    {
+        final Record record = records.get(getKey(apkFilePath));
+        return record != null && record.status == Status.STARTED;
+    }
+
+    public synchronized void started(final Path apkFilePath) throws IOException
+    {
+        final Record record = new Record();
+        record.apk = getKey(apkFilePath);
+        record.size = Files.size(apkFilePath);
+        record.lastModified = Files.getLastModifiedTime(apkFilePath).toMillis();
+        record.hash = hash(apkFilePath);
+        record.status = Status.STARTED;
+        append(record);
+    }
+
+    public synchronized void finished(final Path apkFilePath, final List<Path> outputPaths) throws IOException
+    {
+        final Record record = copyStarted(apkFilePath, Status.FINISHED);
+        record.outputs = Maps.newLinkedHashMap();
+        for (final Path outputPath : outputPaths)
+            record.outputs.put(outputPath.getFileName().toString(), hash(outputPath));
+        append(record);
+    }
+
+    /**
+     * Records that the analysis of the APK file exceeded its budget, so it is analyzed again when resuming.
+     */
+    public synchronized void truncated(final Path apkFilePath) throws IOException
+    {
+        append(copyStarted(apkFilePath, Status.TRUNCATED));
+    }
+
+    public synchronized void failed(final Path apkFilePath) throws IOException
+    {
+        append(copyStarted(apkFilePath, Status.FAILED));
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        writer.close();
+    }
+
+    private Record copyStarted(final Path apkFilePath, final Status status)
+    {
+        final Record started = records.get(getKey(apkFilePath));
+        if (started == null || started.status != Status.STARTED)
+            throw new IllegalStateException(String.format("Analysis of apk file was not started: %s", apkFilePath.toString()));
+
+        final Record record = new Record();
+        record.apk = started.apk;
+        record.size = started.size;
+        record.lastModified = started.lastModified;
+        record.hash = started.hash;
+        record.status = status;
+        return record;
+    }
+
+    private void append(final Record record) throws IOException
+    {
+        records.put(record.apk, record);
+        writer.write(gson.toJson(record));
+        writer.newLine();
+        writer.flush();
+    }
+
+    private static boolean endsWithNewLine(final Path journalPath) throws IOException
+    {
+        try (SeekableByteChannel channel = Files.newByteChannel(journalPath, StandardOpenOption.READ))
+        {
+            if (channel.size() == 0)
+                return true;
+            final ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1);
+            channel.read(buffer);
+            return buffer.get(0) == '\n';
+        }
+    }
+
+    private static String getKey(final Path apkFilePath)
+    {
+        return apkFilePath.getFileName().toString();
+    }
+
+    private static String hash(final Path filePath) throws IOException
+    {
+        return MoreFiles.asByteSource(filePath).hash(Hashing.sha256()).toString();
+    }
+}
@@ -0,0 +1,145 @@
+package de.fau.fuzzing.smalianalyzer.serialize;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Sets;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A string set which buffers at most a configured number of strings on the heap. Once the buffer is full its
+ * content is spilled into hash partitioned bucket files, which are deduplicated one at a time when iterating.
+ * Strings must not contain line breaks, which holds for the escaped const-string values of smali code.
+ */
+public class SpillingStringSet extends AbstractSet<String>
+{
+    private static final int BUCKET_COUNT = 256;
+
+    private final Path spillPath;
+    private final int bufferSize;
+    private final Set<String> buffer = Sets.newHashSet();
+    private boolean spilled = false;
+
+    public SpillingStringSet(final Path spillPath, final int bufferSize)
+    {
+        this.spillPath = spillPath;
+        this.bufferSize = Math.max(bufferSize, 1);
+    }
+
+    /**
+     * Adds the string to the set. After the first spill duplicates can not be detected anymore
+     * and true might be returned for strings already contained in the set.
+     */
+    @Override
+    public boolean add(final String str)
+    {
+        if (!buffer.add(str))
+            return false;
+        if (buffer.size() >= bufferSize)
+            spill();
+        return true;
+    }
+
+    @Override
+    public Iterator<String> iterator()
+    {
+        if (!spilled)
+            return buffer.iterator();
+
+        spill();
+        return new AbstractIterator<String>()
+        {
+            private int bucket = 0;
+            private Iterator<String> bucketIterator = Collections.emptyIterator();
+
+            @Override
+            protected String computeNext()
+            {
+                while (!bucketIterator.hasNext())
+                {
+                    if (bucket >= BUCKET_COUNT)
+                        return endOfData();
+                    bucketIterator = readBucket(bucket++).iterator();
+                }
+                return bucketIterator.next();
+            }
+        };
+    }
+
+    @Override
+    public int size()
+    {
+        return spilled ? Iterators.size(iterator()) : buffer.size();
+    }
+
+    private void spill()
+    {
+        try
+        {
+            Files.createDirectories(spillPath);
+            final BufferedWriter[] writers = new BufferedWriter[BUCKET_COUNT];
+            try
+            {
+                for (final String str : buffer)
+                {
+                    final int bucket = Math.floorMod(str.hashCode(), BUCKET_COUNT);
+                    if (writers[bucket] == null)
+                        writers[bucket] = Files.newBufferedWriter(getBucketPath(bucket), StandardCharsets.UTF_8,
+                                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    writers[bucket].write(str);
+                    writers[bucket].newLine();
+                }
+            }
+            finally
+            {
+                for (final BufferedWriter writer : writers)
+                {
+                    if (writer != null)
+                        writer.close();
+                }
+            }
+            buffer.clear();
+            spilled = true;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed spilling strings to disk", e);
+        }
+    }
+
+    private Set<String> readBucket(final int bucket)
+    {
+        final Path bucketPath = getBucketPath(bucket);
+        final Set<String> result = Sets.newLinkedHashSet();
+        if (Files.notExists(bucketPath))
+            return result;
+
+        try (BufferedReader reader = Files.newBufferedReader(bucketPath, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+                result.add(line);
+            return result;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(String.format("Failed reading spilled strings: %s", bucketPath.toString()), e);
+        }
+    }
+
+    private Path getBucketPath(final int bucket)
+    {
+        return spillPath.resolve(String.format("strings-%03d.txt", bucket));
+    }
+}
@@ -0,0 +1,162 @@
+package de.fau.fuzzing.smalianalyzer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a plain text AndroidManifest.xml of the corpus into the binary xml format found in APK files, so the
+ * corpus does not depend on aapt or binary fixtures. All attribute values are stored as raw strings.
+ */
+class ManifestCompiler
+{
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_NAMESPACE_TYPE = 0x0100;
+    private static final int RES_XML_END_NAMESPACE_TYPE = 0x0101;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+    private static final int TYPE_STRING = 0x03;
+    private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+    private static final String XMLNS_NAMESPACE = "http://www.w3.org/2000/xmlns/";
+
+    private final List<String> strings = Lists.newArrayList();
+    private final Map<String, Integer> stringIds = Maps.newHashMap();
+    private final ByteArrayOutputStream elements = new ByteArrayOutputStream();
+
+    static byte[] compile(final Path manifestPath) throws IOException
+    {
+        try
+        {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            final Element root = factory.newDocumentBuilder().parse(manifestPath.toFile()).getDocumentElement();
+            return new ManifestCompiler().compile(root);
+        }
+        catch (ParserConfigurationException | SAXException e)
+        {
+            throw new IOException(String.format("Failed parsing manifest: %s", manifestPath.toString()), e);
+        }
+    }
+
+    private byte[] compile(final Element root) throws IOException
+    {
+        final int prefixId = intern("android");
+        final int uriId = intern(ANDROID_NAMESPACE);
+        writeNamespace(RES_XML_START_NAMESPACE_TYPE, prefixId, uriId);
+        writeElement(root);
+        writeNamespace(RES_XML_END_NAMESPACE_TYPE, prefixId, uriId);
+
+        final byte[] stringPool = buildStringPool();
+        final ByteBuffer header = allocate(8);
+        header.putShort((short) RES_XML_TYPE).putShort((short) 8).putInt(8 + stringPool.length + elements.size());
+
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        result.write(header.array());
+        result.write(stringPool);
+        elements.writeTo(result);
+        return result.toByteArray();
+    }
+
+    private void writeElement(final Element element) throws IOException
+    {
+        final List<Attr> attributes = Lists.newArrayList();
+        final NamedNodeMap attributeNodes = element.getAttributes();
+        for (int i = 0; i < attributeNodes.getLength(); ++i)
+        {
+            final Attr attribute = (Attr) attributeNodes.item(i);
+            if (!XMLNS_NAMESPACE.equals(attribute.getNamespaceURI()))
+                attributes.add(attribute);
+        }
+
+        final int nameId = intern(element.getLocalName());
+        final ByteBuffer start = allocate(16 + 20 + attributes.size() * 20);
+        start.putShort((short) RES_XML_START_ELEMENT_TYPE).putShort((short) 16).putInt(start.capacity()).putInt(0).putInt(-1);
+        start.putInt(-1).putInt(nameId).putShort((short) 20).putShort((short) 20).putShort((short) attributes.size())
+                .putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        for (final Attr attribute : attributes)
+        {
+            final int valueId = intern(attribute.getValue());
+            start.putInt(attribute.getNamespaceURI() != null ? intern(attribute.getNamespaceURI()) : -1);
+            start.putInt(intern(attribute.getLocalName()));
+            start.putInt(valueId);
+            start.putShort((short) 8).put((byte) 0).put((byte) TYPE_STRING).putInt(valueId);
+        }
+        elements.write(start.array());
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child instanceof Element)
+                writeElement((Element) child);
+        }
+
+        final ByteBuffer end = allocate(24);
+        end.putShort((short) RES_XML_END_ELEMENT_TYPE).putShort((short) 16).putInt(24).putInt(0).putInt(-1);
+        end.putInt(-1).putInt(nameId);
+        elements.write(end.array());
+    }
+
+    private void writeNamespace(final int type, final int prefixId, final int uriId) throws IOException
+    {
+        final ByteBuffer namespace = allocate(24);
+        namespace.putShort((short) type).putShort((short) 16).putInt(24).putInt(0).putInt(-1);
+        namespace.putInt(prefixId).putInt(uriId);
+        elements.write(namespace.array());
+    }
+
+    private byte[] buildStringPool()
+    {
+        // utf-16 strings, each prefixed with its length and terminated by a zero character
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final ByteBuffer offsets = allocate(strings.size() * 4);
+        for (final String str : strings)
+        {
+            offsets.putInt(data.size());
+            final byte[] bytes = str.getBytes(StandardCharsets.UTF_16LE);
+            data.write(str.length() & 0xFF);
+            data.write((str.length() >> 8) & 0xFF);
+            data.write(bytes, 0, bytes.length);
+            data.write(0);
+            data.write(0);
+        }
+        while (data.size() % 4 != 0)
+            data.write(0);
+
+        final int headerSize = 28;
+        final ByteBuffer pool = allocate(headerSize + offsets.capacity() + data.size());
+        pool.putShort((short) RES_STRING_POOL_TYPE).putShort((short) headerSize).putInt(pool.capacity())
+                .putInt(strings.size()).putInt(0).putInt(0).putInt(headerSize + offsets.capacity()).putInt(0);
+        pool.put(offsets.array());
+        pool.put(data.toByteArray());
+        return pool.array();
+    }
+
+    private int intern(final String str)
+    {
+        return stringIds.computeIfAbsent(str, key ->
+        {
+            strings.add(key);
+            return strings.size() - 1;
+        });
+    }
+
+    private static ByteBuffer allocate(final int size)
+    {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
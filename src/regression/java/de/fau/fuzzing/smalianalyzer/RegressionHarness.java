@@ -0,0 +1,350 @@
+package de.fau.fuzzing.smalianalyzer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import de.fau.fuzzing.smalianalyzer.decode.ApkDecoder;
+import de.fau.fuzzing.smalianalyzer.decode.MemoryApkSource;
+import de.fau.fuzzing.smalianalyzer.decode.ScratchSpace;
+import de.fau.fuzzing.smalianalyzer.schedule.BatchScheduler;
+import de.fau.fuzzing.smalianalyzer.serialize.OutputWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs every case of the golden corpus through the reference analysis path and all alternative engines, and
+ * compares the .json, .meta and .str results of each engine against the expected results pinned in the corpus.
+ * Wall-clock time and the allocations of the calling thread are reported per engine, the allocations are not
+ * reported for engines doing their work on other threads. Needs neither an Android SDK nor network access.
+ *
+ * Usage: RegressionHarness corpus-folder [--update]. With --update the results of the reference path are
+ * written as the new expected results.
+ */
+public class RegressionHarness
+{
+    private static final String REFERENCE_ENGINE = "reference";
+    private static final List<String> EXTENSIONS = Lists.newArrayList(".json", ".meta", ".str");
+    // engines whose allocations happen on worker threads, which are not accounted to the calling thread
+    private static final Set<String> MULTI_THREADED_ENGINES = Sets.newHashSet("parallel");
+
+    private interface Engine
+    {
+        /**
+         * Analyzes the case into the output folder and returns the extensions of the result files it produces.
+         */
+        List<String> run(CorpusCase corpusCase, Path outputPath) throws Exception;
+    }
+
+    private static class CorpusCase
+    {
+        private final String name;
+        private final Path casePath;
+        private final Path apkFilePath;
+
+        private CorpusCase(final Path casePath, final Path scratchPath) throws IOException
+        {
+            this.name = casePath.getFileName().toString();
+            this.casePath = casePath;
+            final byte[] manifest = ManifestCompiler.compile(casePath.resolve("AndroidManifest.xml"));
+
+            // an APK file only containing the manifest, for the scheduler and the in-memory source
+            this.apkFilePath = scratchPath.resolve(name + ".apk");
+            try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(apkFilePath)))
+            {
+                outputStream.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+                outputStream.write(manifest);
+                outputStream.closeEntry();
+            }
+        }
+
+        private SmaliTreeSource createSource()
+        {
+            return new SmaliTreeSource(name + ".apk", casePath.resolve("smali"), casePath.resolve("AndroidManifest.xmltree"));
+        }
+
+        /**
+         * Returns the previous version of the case if it has one, i.e. a smali tree in the previous folder, or
+         * the case itself otherwise.
+         */
+        private SmaliTreeSource createPreviousSource()
+        {
+            final Path previousPath = casePath.resolve("previous").resolve("smali");
+            return Files.isDirectory(previousPath) ?
+                    new SmaliTreeSource(name + ".apk", previousPath, casePath.resolve("AndroidManifest.xmltree")) : createSource();
+        }
+
+        private Path getExpectedPath(final String extension)
+        {
+            return casePath.resolve("expected" + extension);
+        }
+    }
+
+    private static ScratchSpace scratchSpace;
+
+    public static void main(final String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: RegressionHarness corpus-folder [--update]");
+            System.exit(2);
+        }
+        final Path corpusPath = Paths.get(args[0]).toAbsolutePath();
+        final boolean update = args.length > 1 && args[1].equals("--update");
+
+        // the corpus pins the configuration, e.g. the maximum depth and a disabled radamsa
+        System.setProperty("smalianalyzer.properties", corpusPath.resolve("regression.properties").toString());
+        final Path scratchPath = Files.createTempDirectory("smalianalyzer-regression");
+        scratchSpace = new ScratchSpace(scratchPath.resolve("jobs"), 0);
+
+        final Map<String, Engine> engines = Maps.newLinkedHashMap();
+        engines.put(REFERENCE_ENGINE, (corpusCase, outputPath) -> analyze(corpusCase, outputPath, new SmaliAnalyzer.AnalysisOptions()));
+        engines.put("offheap-index", (corpusCase, outputPath) ->
+        {
+            final SmaliAnalyzer.AnalysisOptions options = new SmaliAnalyzer.AnalysisOptions();
+            options.indexType = "offheap";
+            return analyze(corpusCase, outputPath, options);
+        });
+        engines.put("bounded-memory", (corpusCase, outputPath) ->
+        {
+            final SmaliAnalyzer.AnalysisOptions options = new SmaliAnalyzer.AnalysisOptions();
+            options.boundedMemory = true;
+            return analyze(corpusCase, outputPath, options);
+        });
+        engines.put("parallel", RegressionHarness::analyzeParallel);
+        engines.put("incremental", (corpusCase, outputPath) -> analyzeIncremental(corpusCase, outputPath, scratchPath));
+        engines.put("memory-manifest", RegressionHarness::decodeManifestFromMemory);
+
+        final List<String> report = Lists.newArrayList();
+        int failures = 0;
+        try (DirectoryStream<Path> caseStream = Files.newDirectoryStream(corpusPath, Files::isDirectory))
+        {
+            final List<Path> casePaths = Lists.newArrayList(caseStream);
+            Collections.sort(casePaths);
+            for (final Path casePath : casePaths)
+            {
+                final CorpusCase corpusCase = new CorpusCase(casePath, scratchPath);
+                for (final Map.Entry<String, Engine> engine : engines.entrySet())
+                {
+                    final Path outputPath = scratchPath.resolve("out").resolve(corpusCase.name).resolve(engine.getKey());
+                    Files.createDirectories(outputPath);
+
+                    final long allocatedBefore = getAllocatedBytes();
+                    final long startTime = System.nanoTime();
+                    List<String> differences;
+                    try
+                    {
+                        final List<String> extensions = engine.getValue().run(corpusCase, outputPath);
+                        if (update && engine.getKey().equals(REFERENCE_ENGINE))
+                            writeExpected(corpusCase, outputPath, extensions);
+                        differences = compare(corpusCase, outputPath, extensions);
+                    }
+                    catch (Exception e)
+                    {
+                        e.printStackTrace();
+                        differences = Collections.singletonList(String.format("failed: %s", e.toString()));
+                    }
+                    final long elapsedTime = System.nanoTime() - startTime;
+                    final long allocated = getAllocatedBytes() - allocatedBefore;
+
+                    if (!differences.isEmpty())
+                        failures++;
+                    report.add(String.format("%-20s %-16s %-6s %8d ms %10s", corpusCase.name, engine.getKey(),
+                            differences.isEmpty() ? "OK" : "DIFF", TimeUnit.NANOSECONDS.toMillis(elapsedTime),
+                            allocatedBefore < 0 || MULTI_THREADED_ENGINES.contains(engine.getKey()) ? "n/a" :
+                                    String.format("%.1f MB", allocated / (1024.0 * 1024.0))));
+                    for (final String difference : differences)
+                        report.add("    " + difference);
+                }
+            }
+        }
+        finally
+        {
+            scratchSpace.shutdown();
+            ApkDecoder.deleteTemporaryFiles(scratchPath);
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-20s %-16s %-6s %11s %10s", "case", "engine", "result", "time", "allocated"));
+        for (final String line : report)
+            System.out.println(line);
+        System.out.println(failures == 0 ? "All engines match the expected results" : String.format("%d engine runs differ", failures));
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static List<String> analyze(final CorpusCase corpusCase, final Path outputPath, final SmaliAnalyzer.AnalysisOptions options)
+    {
+        return analyze(corpusCase.createSource(), outputPath, options);
+    }
+
+    private static List<String> analyze(final SmaliTreeSource source, final Path outputPath, final SmaliAnalyzer.AnalysisOptions options)
+    {
+        options.scratchSpace = scratchSpace;
+        if (!SmaliAnalyzer.analyzeApk(source, outputPath, options))
+            throw new IllegalStateException("Analysis failed");
+        return EXTENSIONS;
+    }
+
+    /**
+     * Analyzes the case on a scheduler with idle workers, which then parse its components concurrently.
+     */
+    private static List<String> analyzeParallel(final CorpusCase corpusCase, final Path outputPath) throws Exception
+    {
+        final SmaliAnalyzer.AnalysisOptions options = new SmaliAnalyzer.AnalysisOptions();
+        options.scheduler = new BatchScheduler(4);
+        final List<List<String>> results = Lists.newArrayList();
+        options.scheduler.run(Collections.singletonList(corpusCase.apkFilePath),
+                apkFilePath -> results.add(analyze(corpusCase, outputPath, options)));
+        if (results.isEmpty())
+            throw new IllegalStateException("Analysis failed");
+        return results.get(0);
+    }
+
+    /**
+     * Analyzes the previous version of the case to save its state and the case itself reusing the results of all
+     * components which do not depend on changed classes. Cases without a previous version are analyzed twice,
+     * reusing the results of all components.
+     */
+    private static List<String> analyzeIncremental(final CorpusCase corpusCase, final Path outputPath, final Path scratchPath)
+    {
+        final Path statePath = scratchPath.resolve("state").resolve(corpusCase.name);
+        try
+        {
+            Files.createDirectories(statePath);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        final SmaliAnalyzer.AnalysisOptions first = new SmaliAnalyzer.AnalysisOptions();
+        first.saveState = true;
+        analyze(corpusCase.createPreviousSource(), statePath, first);
+
+        final SmaliAnalyzer.AnalysisOptions second = new SmaliAnalyzer.AnalysisOptions();
+        second.saveState = true;
+        second.previousStatePath = statePath.resolve(corpusCase.name + ".state");
+        return analyze(corpusCase, outputPath, second);
+    }
+
+    /**
+     * Decodes the manifest from the in-memory APK file, only the .meta result can be compared.
+     */
+    private static List<String> decodeManifestFromMemory(final CorpusCase corpusCase, final Path outputPath) throws IOException
+    {
+        final MemoryApkSource source = new MemoryApkSource(corpusCase.name + ".apk", Files.readAllBytes(corpusCase.apkFilePath));
+        final Path decodePath = outputPath.resolve("decoded");
+        Files.createDirectories(decodePath);
+        source.decode(decodePath, AnalysisBudget.unlimited());
+        OutputWriter.writeToJSONFile(outputPath.resolve(corpusCase.name + ".meta"), source.decodeManifest());
+        return Collections.singletonList(".meta");
+    }
+
+    private static void writeExpected(final CorpusCase corpusCase, final Path outputPath, final List<String> extensions) throws IOException
+    {
+        for (final String extension : extensions)
+        {
+            final String normalized = normalize(outputPath.resolve(corpusCase.name + extension), extension);
+            try (OutputStream outputStream = Files.newOutputStream(corpusCase.getExpectedPath(extension)))
+            {
+                outputStream.write(normalized.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static List<String> compare(final CorpusCase corpusCase, final Path outputPath, final List<String> extensions) throws IOException
+    {
+        final List<String> differences = Lists.newArrayList();
+        for (final String extension : extensions)
+        {
+            final Path expectedPath = corpusCase.getExpectedPath(extension);
+            if (Files.notExists(expectedPath))
+            {
+                differences.add(String.format("missing expected result %s, run with --update", expectedPath.getFileName().toString()));
+                continue;
+            }
+
+            final List<String> expected = Lists.newArrayList(normalize(expectedPath, extension).split("\n"));
+            final List<String> actual = Lists.newArrayList(normalize(outputPath.resolve(corpusCase.name + extension), extension).split("\n"));
+            for (int i = 0; i < Math.max(expected.size(), actual.size()); ++i)
+            {
+                final String expectedLine = i < expected.size() ? expected.get(i) : "<end of file>";
+                final String actualLine = i < actual.size() ? actual.get(i) : "<end of file>";
+                if (!expectedLine.equals(actualLine))
+                {
+                    differences.add(String.format("%s line %d: expected %s but was %s", extension, i + 1, expectedLine.trim(), actualLine.trim()));
+                    break;
+                }
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Brings a result file into a canonical form, as the order of components, keys, values and strings
+     * depends on hashing and is not part of the result.
+     */
+    private static String normalize(final Path resultPath, final String extension) throws IOException
+    {
+        final String content = new String(Files.readAllBytes(resultPath), StandardCharsets.UTF_8);
+        if (extension.equals(".str"))
+        {
+            final List<String> lines = Lists.newArrayList(Sets.newTreeSet(Lists.newArrayList(content.split("\n"))));
+            lines.remove("");
+            return String.join("\n", lines) + "\n";
+        }
+
+        final JsonElement element = content.trim().isEmpty() ? new JsonObject() : new JsonParser().parse(content);
+        return new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(canonicalize(element)) + "\n";
+    }
+
+    private static JsonElement canonicalize(final JsonElement element)
+    {
+        if (element.isJsonObject())
+        {
+            final JsonObject result = new JsonObject();
+            final List<String> keys = Lists.newArrayList(element.getAsJsonObject().keySet());
+            Collections.sort(keys);
+            for (final String key : keys)
+                result.add(key, canonicalize(element.getAsJsonObject().get(key)));
+            return result;
+        }
+        if (element.isJsonArray())
+        {
+            final List<JsonElement> values = Lists.newArrayList();
+            for (final JsonElement value : element.getAsJsonArray())
+                values.add(canonicalize(value));
+            values.sort((first, second) -> first.toString().compareTo(second.toString()));
+            final JsonArray result = new JsonArray();
+            values.forEach(result::add);
+            return result;
+        }
+        return element;
+    }
+
+    private static long getAllocatedBytes()
+    {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+}
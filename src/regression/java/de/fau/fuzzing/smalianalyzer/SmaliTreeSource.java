@@ -0,0 +1,87 @@
+package de.fau.fuzzing.smalianalyzer;
+
+import de.fau.fuzzing.smalianalyzer.decode.ApkDecoder;
+import de.fau.fuzzing.smalianalyzer.decode.ApkSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A corpus case whose code is already disassembled: decoding copies its smali tree into the scratch directory,
+ * which skips baksmali but runs indexing and parsing exactly like for a decoded APK file. The manifest is decoded
+ * from a fixture in the format of aapt's xmltree dump, using the same parser as for the output of aapt.
+ */
+class SmaliTreeSource implements ApkSource
+{
+    private final String fileName;
+    private final Path smaliPath;
+    private final Path xmlTreePath;
+
+    SmaliTreeSource(final String fileName, final Path smaliPath, final Path xmlTreePath)
+    {
+        this.fileName = fileName;
+        this.smaliPath = smaliPath;
+        this.xmlTreePath = xmlTreePath;
+    }
+
+    @Override
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    @Override
+    public Path getParentPath()
+    {
+        return null;
+    }
+
+    @Override
+    public void decode(final Path outputPath, final AnalysisBudget budget) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(smaliPath))
+        {
+            paths.forEach(path ->
+            {
+                budget.check();
+                try
+                {
+                    final Path targetPath = outputPath.resolve(smaliPath.relativize(path).toString());
+                    if (Files.isDirectory(path))
+                        Files.createDirectories(targetPath);
+                    else
+                        Files.copy(path, targetPath);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Map<String, ApkDecoder.IntentFilters> decodeManifest() throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader(xmlTreePath, StandardCharsets.UTF_8))
+        {
+            return ApkDecoder.parseXmlTree(reader);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return smaliPath.toString();
+    }
+}